@@ -22,3 +22,5 @@ include("spruce-processor:spruce-processor-velocity")
 findProject(":spruce-processor:spruce-processor-velocity")?.name = "spruce-processor-velocity"
 include("spruce-processor:spruce-processor-models")
 findProject(":spruce-processor:spruce-processor-models")?.name = "spruce-processor-models"
+include("spruce-processor:spruce-processor-service")
+findProject(":spruce-processor:spruce-processor-service")?.name = "spruce-processor-service"
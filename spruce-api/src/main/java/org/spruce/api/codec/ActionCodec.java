@@ -0,0 +1,61 @@
+package org.spruce.api.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request and response types of a single service action, with decoders and encoders bound per codec.
+ * <p>
+ * Binding happens once per codec; the codec of the last call is kept in a field, so a service
+ * that only sees one content type never does a lookup on the request path.
+ */
+public final class ActionCodec {
+
+    private final Type requestType;
+    private final Type responseType;
+    private final Map<SpruceCodec, Bound> bound = new ConcurrentHashMap<>();
+    private volatile Bound last;
+
+    /**
+     * @param requestType  type of the action parameter, or null for actions without one
+     * @param responseType declared result type, {@code Object.class} to encode by runtime type
+     */
+    public ActionCodec(Type requestType, Type responseType) {
+        this.requestType = requestType;
+        this.responseType = responseType;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T decode(SpruceCodec codec, byte[] payload) throws IOException {
+        Bound b = bind(codec);
+        if (b.decoder == null) throw new IllegalStateException("Action takes no parameter");
+        return (T) b.decoder.decode(payload);
+    }
+
+    public byte[] encode(SpruceCodec codec, Object value) throws IOException {
+        return bind(codec).encoder.encode(value);
+    }
+
+    private Bound bind(SpruceCodec codec) {
+        Bound b = last;
+        if (b != null && b.codec == codec) return b;
+
+        b = bound.computeIfAbsent(codec, Bound::new);
+        last = b;
+        return b;
+    }
+
+    private final class Bound {
+        final SpruceCodec codec;
+        final SpruceCodec.Decoder<?> decoder;
+        final SpruceCodec.Encoder encoder;
+
+        Bound(SpruceCodec codec) {
+            this.codec = codec;
+            this.decoder = requestType != null ? codec.decoder(requestType) : null;
+            this.encoder = codec.encoder(responseType);
+        }
+    }
+}
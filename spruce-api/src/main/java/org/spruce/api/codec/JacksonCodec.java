@@ -0,0 +1,78 @@
+package org.spruce.api.codec;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codec backed by a Jackson {@link ObjectMapper}, for JSON or any binary Jackson format.
+ * Readers are cached per target type; {@link #decoder} and {@link #encoder} hand out pre-bound
+ * readers and writers.
+ */
+public class JacksonCodec implements SpruceCodec {
+
+    private final String contentType;
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    public JacksonCodec(String contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+        this.writer = mapper.writer();
+    }
+
+    public static JacksonCodec json() {
+        return new JacksonCodec(SpruceCodecs.JSON, new ObjectMapper().registerModule(new KotlinModule.Builder().build()));
+    }
+
+    public static JacksonCodec cbor() {
+        return new JacksonCodec(SpruceCodecs.CBOR, new CBORMapper().registerModule(new KotlinModule.Builder().build()));
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        return writer.writeValueAsBytes(value);
+    }
+
+    @Override
+    public <T> T decode(byte[] data, Type type) throws IOException {
+        return readers.computeIfAbsent(type, this::reader).readValue(data);
+    }
+
+    @Override
+    public <T> Decoder<T> decoder(Type type) {
+        ObjectReader reader = reader(type);
+        return reader::readValue;
+    }
+
+    @Override
+    public Encoder encoder(Type type) {
+        if (type == Object.class) return writer::writeValueAsBytes;
+
+        ObjectWriter typed = mapper.writerFor(mapper.getTypeFactory().constructType(type));
+        return typed::writeValueAsBytes;
+    }
+
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+
+    private ObjectReader reader(Type type) {
+        JavaType javaType = mapper.getTypeFactory().constructType(type);
+        return mapper.readerFor(javaType);
+    }
+}
@@ -0,0 +1,66 @@
+package org.spruce.api.codec;
+
+import com.google.protobuf.MessageLite;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Codec for protobuf messages. Payloads and responses must be generated message classes.
+ * <p>
+ * protobuf-java is not bundled with spruce-api; this codec is only registered when it is on the classpath.
+ */
+public class ProtobufCodec implements SpruceCodec {
+
+    private static final MethodType PARSE_FROM = MethodType.methodType(Object.class, byte[].class);
+
+    private final Map<Class<?>, MethodHandle> parsers = new ConcurrentHashMap<>();
+
+    @Override
+    public String contentType() {
+        return SpruceCodecs.PROTOBUF;
+    }
+
+    @Override
+    public byte[] encode(Object value) throws IOException {
+        if (!(value instanceof MessageLite message)) {
+            throw new IOException("Not a protobuf message: " + (value == null ? "null" : value.getClass().getName()));
+        }
+        return message.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] data, Type type) throws IOException {
+        if (!(type instanceof Class<?> clazz)) {
+            throw new IOException("Not a protobuf message type: " + type);
+        }
+
+        try {
+            return (T) parsers.computeIfAbsent(clazz, ProtobufCodec::parser).invoke(data);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException("Failed to parse " + clazz.getName(), e);
+        }
+    }
+
+    private static MethodHandle parser(Class<?> clazz) {
+        if (!MessageLite.class.isAssignableFrom(clazz)) {
+            throw new IllegalArgumentException("Not a protobuf message type: " + clazz.getName());
+        }
+
+        try {
+            return MethodHandles.publicLookup()
+                    .findStatic(clazz, "parseFrom", MethodType.methodType(clazz, byte[].class))
+                    .asType(PARSE_FROM);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("No parseFrom(byte[]) on " + clazz.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.spruce.api.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Serializes call payloads, responses and events to bytes.
+ * <p>
+ * Codecs are looked up by content type through {@link SpruceCodecs}; the content type travels
+ * with every payload so the receiving side decodes with the same codec. Implementations must be
+ * thread-safe. Custom codecs can be registered with {@link SpruceCodecs#register} or through
+ * {@code META-INF/services/org.spruce.api.codec.SpruceCodec}.
+ */
+public interface SpruceCodec {
+
+    /**
+     * MIME type identifying this codec, e.g. {@code application/json}.
+     */
+    String contentType();
+
+    byte[] encode(Object value) throws IOException;
+
+    <T> T decode(byte[] data, Type type) throws IOException;
+
+    default <T> T decode(byte[] data, Class<T> type) throws IOException {
+        return decode(data, (Type) type);
+    }
+
+    /**
+     * Returns a decoder bound to the given type, for callers that decode the same type repeatedly.
+     */
+    default <T> Decoder<T> decoder(Type type) {
+        return data -> decode(data, type);
+    }
+
+    /**
+     * Returns an encoder bound to the given declared type.
+     */
+    default Encoder encoder(Type type) {
+        return this::encode;
+    }
+
+    @FunctionalInterface
+    interface Decoder<T> {
+        T decode(byte[] data) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface Encoder {
+        byte[] encode(Object value) throws IOException;
+    }
+}
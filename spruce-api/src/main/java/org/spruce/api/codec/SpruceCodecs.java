@@ -0,0 +1,80 @@
+package org.spruce.api.codec;
+
+import org.spruce.api.event.GatewayEvent;
+import org.spruce.api.event.GatewayEventType;
+import org.spruce.api.service.ServiceModel;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link SpruceCodec}s by content type.
+ * <p>
+ * JSON and CBOR are always available, protobuf when protobuf-java is on the classpath.
+ * Additional codecs are discovered with {@link ServiceLoader} on first use.
+ */
+public final class SpruceCodecs {
+
+    public static final String JSON = "application/json";
+    public static final String CBOR = "application/cbor";
+    public static final String PROTOBUF = "application/x-protobuf";
+
+    private static final Map<String, SpruceCodec> CODECS = new ConcurrentHashMap<>();
+    private static final JacksonCodec JSON_CODEC = JacksonCodec.json();
+
+    static {
+        register(JSON_CODEC);
+        register(JacksonCodec.cbor());
+
+        try {
+            Class.forName("com.google.protobuf.MessageLite", false, SpruceCodecs.class.getClassLoader());
+            register(new ProtobufCodec());
+        } catch (ClassNotFoundException ignored) {
+            // protobuf-java not on the classpath
+        }
+
+        for (SpruceCodec codec : ServiceLoader.load(SpruceCodec.class, SpruceCodecs.class.getClassLoader())) {
+            register(codec);
+        }
+    }
+
+    private SpruceCodecs() {}
+
+    public static void register(SpruceCodec codec) {
+        CODECS.put(codec.contentType(), codec);
+    }
+
+    /**
+     * Returns the codec for a content type; null or empty means JSON.
+     *
+     * @throws IllegalArgumentException if no codec is registered for the content type
+     */
+    public static SpruceCodec get(String contentType) {
+        if (contentType == null || contentType.isEmpty()) return JSON_CODEC;
+
+        SpruceCodec codec = CODECS.get(contentType);
+        if (codec == null) throw new IllegalArgumentException("Unsupported content type: " + contentType);
+        return codec;
+    }
+
+    public static JacksonCodec json() {
+        return JSON_CODEC;
+    }
+
+    /**
+     * Returns the codec configured with {@link ServiceModel#contentType()} on a service model interface.
+     */
+    public static SpruceCodec forModel(Class<?> model) {
+        ServiceModel annotation = model.getAnnotation(ServiceModel.class);
+        return annotation == null ? JSON_CODEC : get(annotation.contentType());
+    }
+
+    /**
+     * Returns the codec configured with {@link GatewayEventType#contentType()} on an event class.
+     */
+    public static SpruceCodec forEvent(Class<? extends GatewayEvent> event) {
+        GatewayEventType annotation = event.getAnnotation(GatewayEventType.class);
+        return annotation == null ? JSON_CODEC : get(annotation.contentType());
+    }
+}
@@ -0,0 +1,24 @@
+package org.spruce.api.codec;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+/**
+ * Captures a generic type for decoding, e.g. {@code new TypeToken<List<Friend>>() {}.getType()}.
+ */
+public abstract class TypeToken<T> {
+
+    private final Type type;
+
+    protected TypeToken() {
+        Type superclass = getClass().getGenericSuperclass();
+        if (!(superclass instanceof ParameterizedType parameterized)) {
+            throw new IllegalStateException("TypeToken must be created with a type argument");
+        }
+        this.type = parameterized.getActualTypeArguments()[0];
+    }
+
+    public Type getType() {
+        return type;
+    }
+}
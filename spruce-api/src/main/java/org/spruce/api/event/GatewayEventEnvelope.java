@@ -1,6 +1,17 @@
 package org.spruce.api.event;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Wrapper for serialized events published to the Redis event channel.
+ * <p>
+ * JSON events carry their payload as text; events encoded with a binary codec carry
+ * their content type and the encoded bytes in data instead.
  */
-public record GatewayEventEnvelope(String type, String payload) {}
\ No newline at end of file
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record GatewayEventEnvelope(String type, String payload, String contentType, byte[] data) {
+
+    public GatewayEventEnvelope(String type, String payload) {
+        this(type, payload, null, null);
+    }
+}
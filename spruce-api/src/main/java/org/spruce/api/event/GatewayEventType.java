@@ -1,5 +1,7 @@
 package org.spruce.api.event;
 
+import org.spruce.api.codec.SpruceCodecs;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -13,4 +15,9 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface GatewayEventType {
     String value();
+
+    /**
+     * Content type of the codec used for the event payload, see {@link SpruceCodecs}.
+     */
+    String contentType() default SpruceCodecs.JSON;
 }
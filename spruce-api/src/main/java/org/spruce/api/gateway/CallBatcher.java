@@ -0,0 +1,102 @@
+package org.spruce.api.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects single calls into batches for generated proxies (see {@link org.spruce.api.service.Batched}).
+ * <p>
+ * A batch is sent windowMillis after its first call or as soon as it reaches maxSize calls.
+ * The sender must return one result per request, in request order; each result completes
+ * the future of its call, and a failed batch fails all of them.
+ */
+public class CallBatcher<Q, R> {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "call-batcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long windowMillis;
+    private final int maxSize;
+    private final Function<List<Q>, CompletableFuture<List<R>>> sender;
+
+    private Batch<Q, R> current;
+
+    public CallBatcher(long windowMillis, int maxSize, Function<List<Q>, CompletableFuture<List<R>>> sender) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.maxSize = Math.max(1, maxSize);
+        this.sender = sender;
+    }
+
+    public CompletableFuture<R> submit(Q request) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        Batch<Q, R> full = null;
+
+        synchronized (this) {
+            if (current == null) {
+                Batch<Q, R> batch = new Batch<>(maxSize);
+                current = batch;
+                TIMER.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+            current.requests.add(request);
+            current.futures.add(future);
+
+            if (current.requests.size() >= maxSize) {
+                full = current;
+                current = null;
+            }
+        }
+
+        if (full != null) send(full);
+        return future;
+    }
+
+    private void flush(Batch<Q, R> batch) {
+        synchronized (this) {
+            if (current != batch) return;
+            current = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch<Q, R> batch) {
+        CompletableFuture<List<R>> response;
+        try {
+            response = sender.apply(batch.requests);
+        } catch (Exception e) {
+            batch.futures.forEach(f -> f.completeExceptionally(e));
+            return;
+        }
+
+        response.whenComplete((results, error) -> {
+            if (error == null && (results == null || results.size() != batch.futures.size())) {
+                error = new IllegalStateException("Batch returned " + (results == null ? 0 : results.size())
+                        + " results for " + batch.futures.size() + " requests");
+            }
+            for (int i = 0; i < batch.futures.size(); i++) {
+                if (error != null) {
+                    batch.futures.get(i).completeExceptionally(error);
+                } else {
+                    batch.futures.get(i).complete(results.get(i));
+                }
+            }
+        });
+    }
+
+    private static final class Batch<Q, R> {
+        final List<Q> requests;
+        final List<CompletableFuture<R>> futures;
+
+        Batch(int capacity) {
+            this.requests = new ArrayList<>(capacity);
+            this.futures = new ArrayList<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.spruce.api.gateway;
+
+import org.spruce.api.codec.SpruceCodecs;
+
+import java.util.List;
+
+/**
+ * Per-call settings carried with a {@link GatewayCall}.
+ *
+ * @param contentType    content type of the codec used for the request and response payloads
+ * @param coalesce       whether the gateway may share one in-flight request between identical calls
+ * @param cacheTtlMillis how long the gateway may cache the response, 0 disables caching
+ * @param invalidateOn   event types that invalidate a cached response
+ * @param timeoutMillis  deadline of the call, 0 uses the gateway's default request timeout
+ */
+public record CallOptions(String contentType, boolean coalesce, long cacheTtlMillis, List<String> invalidateOn,
+                          long timeoutMillis) {
+
+    public static final CallOptions DEFAULT = new CallOptions(SpruceCodecs.JSON, false, 0, List.of(), 0);
+
+    public CallOptions withContentType(String contentType) {
+        return new CallOptions(contentType, coalesce, cacheTtlMillis, invalidateOn, timeoutMillis);
+    }
+
+    public CallOptions withCoalesce(boolean coalesce) {
+        return new CallOptions(contentType, coalesce, cacheTtlMillis, invalidateOn, timeoutMillis);
+    }
+
+    public CallOptions withCache(long ttlMillis, String... invalidateOn) {
+        return new CallOptions(contentType, coalesce, ttlMillis, List.of(invalidateOn), timeoutMillis);
+    }
+
+    public CallOptions withTimeout(long timeoutMillis) {
+        return new CallOptions(contentType, coalesce, cacheTtlMillis, invalidateOn, timeoutMillis);
+    }
+}
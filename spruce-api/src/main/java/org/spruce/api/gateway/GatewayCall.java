@@ -2,11 +2,19 @@ package org.spruce.api.gateway;
 
 /**
  * Represents a call to a remote service via the Spruce Gateway.
- * Contains service name, method name, request payload and expected response class.
+ * Contains service name, method name, request payload, expected response class and call options.
  */
-public record GatewayCall<T>(String service, String action, Object payload, Class<T> responseType) {
+public record GatewayCall<T>(String service, String action, Object payload, Class<T> responseType, CallOptions options) {
+
+    public GatewayCall(String service, String action, Object payload, Class<T> responseType) {
+        this(service, action, payload, responseType, CallOptions.DEFAULT);
+    }
 
     public static <T> GatewayCall<T> of(String service, String action, Object payload, Class<T> responseType) {
         return new GatewayCall<>(service, action, payload, responseType);
     }
+
+    public static <T> GatewayCall<T> of(String service, String action, Object payload, Class<T> responseType, CallOptions options) {
+        return new GatewayCall<>(service, action, payload, responseType, options);
+    }
 }
@@ -0,0 +1,110 @@
+package org.spruce.api.gateway;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Size-bounded, TTL'd cache of call results used by generated caching proxies
+ * (see {@link org.spruce.api.service.NearCache}).
+ * <p>
+ * A future is cached on the first miss, under the same lock as the lookup, so concurrent lookups
+ * of the same key share one call. Failed calls are removed from the cache, and a call that was
+ * in flight while the cache was invalidated is not kept.
+ */
+public class ResponseNearCache<K, V> {
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ResponseNearCache(long ttlMillis, int maxSize) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxSize = Math.max(1, maxSize);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= ResponseNearCache.this.maxSize) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the key, or calls the loader and caches its future.
+     */
+    public CompletableFuture<V> get(K key, Function<K, CompletableFuture<V>> loader) {
+        long now = System.nanoTime();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        Entry<V> entry = new Entry<>(future, now + ttlNanos);
+        synchronized (entries) {
+            Entry<V> cached = entries.get(key);
+            if (cached != null && now - cached.expiresAtNanos < 0) {
+                hits.increment();
+                return cached.future.copy();
+            }
+            entries.put(key, entry);
+        }
+
+        misses.increment();
+        CompletableFuture<V> loaded;
+        try {
+            loaded = loader.apply(key);
+        } catch (RuntimeException e) {
+            loaded = CompletableFuture.failedFuture(e);
+        }
+
+        loaded.whenComplete((value, error) -> {
+            if (error != null) {
+                // Removed before waiters see the failure, so a retry starts a new call
+                synchronized (entries) {
+                    entries.remove(key, entry);
+                }
+                future.completeExceptionally(error);
+            } else {
+                future.complete(value);
+            }
+        });
+        return future.copy();
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            if (entries.remove(key) != null) invalidations.increment();
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.add(entries.size());
+            entries.clear();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), size);
+    }
+
+    public record Stats(long hits, long misses, long evictions, long invalidations, int size) {
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private record Entry<V>(CompletableFuture<V> future, long expiresAtNanos) {}
+}
@@ -1,18 +1,25 @@
 package org.spruce.api.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import org.spruce.api.codec.SpruceCodec;
+import org.spruce.api.codec.SpruceCodecs;
 import org.spruce.api.event.GatewayEvent;
 import org.spruce.api.event.GatewayEventEnvelope;
 import org.spruce.api.event.GatewayEventResolver;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPooled;
 import redis.clients.jedis.StreamEntryID;
-import redis.clients.jedis.resps.StreamEntry;
+import redis.clients.jedis.params.XAutoClaimParams;
+import redis.clients.jedis.params.XReadGroupParams;
+import redis.clients.jedis.resps.StreamConsumerInfo;
+import redis.clients.jedis.util.SafeEncoder;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,31 +35,92 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
     public static final String RESPONSE_STREAM = GATEWAY_PREFIX + "responses";
 
     public static final String EVENT_CHANNEL = GATEWAY_PREFIX + "events";
+    public static final String EVENT_STREAM = EVENT_CHANNEL + ":log";
 
     public static final String SERVICE_GROUP = "service-group";
 
+    public static final String DEFAULT_CONTENT_TYPE = SpruceCodecs.JSON;
+
+    private static final byte[] UNRECEIVED = SafeEncoder.encode(StreamEntryID.UNRECEIVED_ENTRY.toString());
+
+
+    protected final RequestRouting requestRouting = RequestRouting.fromEnv();
+    protected final EventTransport eventTransport = EventTransport.fromEnv();
+    private final StreamTrim eventTrim = StreamTrim.fromEnv("EVENT_STREAM", 100_000);
+
+    /**
+     * Whether acknowledged entries are deleted (XDEL) from streams read by a single consumer group,
+     * see {@link #isDeletable}. Disabled with DELETE_ACKED_ENTRIES=false.
+     */
+    protected final boolean deleteAcked = !"false".equalsIgnoreCase(System.getenv("DELETE_ACKED_ENTRIES"));
 
     protected final JedisPooled streamRedis;
     protected final Jedis pubSubRedis;
     protected final Logger logger;
     protected final ObjectMapper mapper;
+    protected final ServiceMetrics metrics = new ServiceMetrics();
+    protected final StreamBatchWriter writer;
 
-    protected final BlockingQueue<StreamEntryID> ackQueue = new LinkedBlockingQueue<>();
-    protected final ExecutorService ackExecutor = Executors.newSingleThreadExecutor();
+    protected final ExecutorService writerExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "stream-writer"));
+    protected final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "scheduler");
+        t.setDaemon(true);
+        return t;
+    });
     protected final ExecutorService streamExecutor = Executors.newSingleThreadExecutor(r -> {
         Thread t = new Thread(r, "stream");
         t.setDaemon(false);
         return t;
     });
-    protected final ExecutorService workerPool = Executors.newFixedThreadPool(
-            Integer.parseInt(System.getenv().getOrDefault("WORKER_THREADS", "8"))
-    );
+    protected final ExecutionMode executionMode = ExecutionMode.fromEnv();
+    protected final int workerThreads = envInt("WORKER_THREADS", 8);
+    protected final ExecutorService workerPool = executionMode.newExecutor("worker", workerThreads);
+
+    /**
+     * Caps entries taken from the stream but not yet completed, including async actions
+     * that no longer hold a worker thread. The consume loop blocks while no permit is free.
+     * See {@link ExecutionMode#defaultMaxInFlight} for the default.
+     */
+    protected final int maxInFlight = envInt("MAX_IN_FLIGHT", executionMode.defaultMaxInFlight(workerThreads));
+    protected final Semaphore inFlight = new Semaphore(maxInFlight);
+
+    /**
+     * XREADGROUP COUNT, adapted between READ_BATCH_MIN and READ_BATCH_MAX: grows by READ_BATCH_MIN
+     * while full batches are read with capacity to spare, halves when capacity runs short.
+     * Only the consume loop writes it.
+     */
+    private final int minReadBatch = Math.max(1, envInt("READ_BATCH_MIN", 10));
+    private final int maxReadBatch = Math.max(minReadBatch, envInt("READ_BATCH_MAX", 256));
+    private volatile int readBatch = minReadBatch;
+    private int readCount = minReadBatch;
+    private List<String> readStreams = List.of();
+    private int readOffset;
+    private final LongAdder readPauses = metrics.counter("service.read.paused");
+
+    private final long reclaimIdleMillis = envInt("RECLAIM_IDLE_MS", 30_000);
+    private final long consumerExpiryMillis = envInt("CONSUMER_EXPIRY_MS", 600_000);
+    private final LongAdder reclaimedEntries = metrics.counter("service.entries.reclaimed");
+    private final LongAdder removedConsumers = metrics.counter("service.consumers.removed");
+    private volatile long streamLength;
+    private volatile long streamMemory;
 
     public AbstractSpruceService(String redisUrl, Logger logger) {
         this.streamRedis = new JedisPooled(redisUrl);
         this.pubSubRedis = new Jedis(redisUrl);
         this.logger = logger;
-        this.mapper = new ObjectMapper().registerModule(new KotlinModule.Builder().build());
+        this.mapper = SpruceCodecs.json().getMapper();
+        this.writer = new StreamBatchWriter(
+                streamRedis,
+                logger,
+                metrics,
+                envInt("WRITE_BATCH_SIZE", 256),
+                envInt("WRITE_LINGER_MICROS", 0),
+                envInt("WRITE_QUEUE_CAPACITY", 65536)
+        );
+        metrics.gauge("service.requests.in_flight", () -> maxInFlight - inFlight.availablePermits());
+        metrics.gauge("service.read.batch", () -> readBatch);
+        metrics.gauge("service.streams.length", () -> streamLength);
+        metrics.gauge("service.streams.memory.bytes", () -> streamMemory);
     }
 
     /**
@@ -60,85 +128,321 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
      * Called for every Redis Stream entry received.
      * Adds entry ID to ackQueue manually when done.
      */
-    protected abstract void handleEntry(StreamEntry entry);
+    protected abstract void handleEntry(StreamRecord entry);
+
+    /**
+     * Handles an entry that may complete later, e.g. an action returning a CompletableFuture.
+     * The entry is acknowledged and its in-flight permit released when the returned future completes.
+     * Defaults to the synchronous {@link #handleEntry}.
+     */
+    protected CompletableFuture<Void> handleEntryAsync(StreamRecord entry) {
+        handleEntry(entry);
+        return CompletableFuture.completedFuture(null);
+    }
 
     /**
      * Must be implemented by subclass.
-     * Called in consume loop to poll Redis Stream entries.
+     * Called in consume loop to poll Redis Stream entries, reading at most {@link #getReadCount()} from each
+     * of {@link #getReadStreams()}.
      */
-    protected abstract List<Map.Entry<String, List<StreamEntry>>> pollStream();
+    protected abstract List<Map.Entry<String, List<StreamRecord>>> pollStream();
 
     /**
-     * Starts the acknowledgment loop in a separate thread.
-     * Continuously pulls entry IDs from ackQueue and sends XACK to Redis.
+     * Must be implemented by subclass.
+     * Returns the Redis Streams read by pollStream(), used to (re)create consumer groups.
+     */
+    protected abstract Collection<String> getConsumedStreams();
+
+    /**
+     * Starts the batching stream writer and the consume loop in separate threads.
+     * Entries are handled on the worker pool, see {@link ExecutionMode}.
+     * Pending entries of dead consumers are reclaimed every RECLAIM_INTERVAL_MS (0 disables it).
+     * Metrics are logged every METRICS_LOG_INTERVAL seconds (0 disables it), after refreshing
+     * the length and memory usage of the consumed streams.
      */
     public void start() {
-        ackExecutor.submit(this::ackLoop);
+        writerExecutor.submit(writer);
         streamExecutor.submit(this::consumeLoop);
+
+        int reclaimInterval = envInt("RECLAIM_INTERVAL_MS", 5000);
+        if (reclaimInterval > 0 && getConsumerName() != null) {
+            scheduler.scheduleWithFixedDelay(this::reclaimPending, reclaimInterval, reclaimInterval, TimeUnit.MILLISECONDS);
+        }
+
+        int metricsInterval = envInt("METRICS_LOG_INTERVAL", 60);
+        if (metricsInterval > 0) {
+            scheduler.scheduleAtFixedRate(
+                    () -> {
+                        refreshStreamStats();
+                        logger.info("Metrics: " + metrics.snapshot());
+                    },
+                    metricsInterval, metricsInterval, TimeUnit.SECONDS
+            );
+        }
     }
 
     /**
      * Submits all entries from a Redis stream to the worker thread pool.
+     * Each entry takes an in-flight permit first, waiting while MAX_IN_FLIGHT entries are pending.
+     * MAX_IN_FLIGHT defaults to twice WORKER_THREADS with platform threads, so a replica only reads entries
+     * it can start on soon, and to 1024 with virtual threads, where it is the only limit.
      * If the pool is overloaded, the entry is dropped and a warning is logged.
      */
-    protected void dispatchStream(Map.Entry<String, List<StreamEntry>> stream) {
-        for (StreamEntry entry : stream.getValue()) {
+    protected void dispatchStream(Map.Entry<String, List<StreamRecord>> stream) throws InterruptedException {
+        String streamName = stream.getKey();
+        for (StreamRecord entry : stream.getValue()) {
+            inFlight.acquire();
             try {
-                workerPool.submit(() -> safeHandle(entry));
+                workerPool.submit(() -> safeHandle(streamName, entry));
             } catch (RejectedExecutionException e) {
-                logger.warning("Worker pool overloaded. Entry dropped: " + entry.getID());
+                inFlight.release();
+                logger.warning("Worker pool overloaded. Entry dropped: " + entry.id());
             }
         }
     }
 
     /**
-     * Safely handles a single entry by delegating to handleEntry().
+     * Safely handles a single entry by delegating to handleEntryAsync().
      * Any exception is caught and logged without crashing the worker.
+     * The entry is acknowledged through the batching writer once handling completes,
+     * which may happen on another thread for async actions. Entries whose handling fails,
+     * e.g. because the response could not be written, stay pending and are reclaimed later.
      */
-    protected void safeHandle(StreamEntry entry) {
+    protected void safeHandle(String stream, StreamRecord entry) {
+        CompletableFuture<Void> handled;
         try {
-            handleEntry(entry);
-            ackQueue.add(entry.getID());
+            handled = handleEntryAsync(entry);
         } catch (Exception e) {
+            inFlight.release();
             logger.log(Level.WARNING, "Error in worker", e);
+            return;
         }
+
+        handled.whenComplete((ignored, error) -> {
+            inFlight.release();
+            if (error != null) {
+                logger.log(Level.WARNING, "Error in worker", error);
+                return;
+            }
+            writer.xack(stream, getAckGroup(), entry.id(), deleteAcked && isDeletable(stream));
+        });
     }
 
     /**
-     * Separate loop for acknowledging processed entries (XACK).
-     * Pulls entry IDs from the ack queue and confirms them in Redis.
+     * Main loop for consuming Redis Stream using XREADGROUP.
+     * Submits each entry to the worker pool for async handling.
+     * <p>
+     * Reading pauses while all in-flight permits are taken, and COUNT never exceeds the free permits,
+     * so unread entries stay in Redis for other consumers of the group instead of queueing up here.
+     * The free permits are split between the consumed streams; with fewer permits than streams only as many
+     * streams are read, one entry each.
      */
-    private void ackLoop() {
+    private void consumeLoop() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                StreamEntryID id = ackQueue.poll(1, TimeUnit.SECONDS);
-                if (id != null) {
-                    streamRedis.xack(getAckStream(), getAckGroup(), id);
+                int available = awaitCapacity();
+                Collection<String> streams = getConsumedStreams();
+                int capacity = available / Math.max(1, streams.size());
+                readStreams = selectReadStreams(streams, available);
+                readCount = Math.max(1, Math.min(readBatch, capacity));
+
+                List<Map.Entry<String, List<StreamRecord>>> entries = pollStream();
+                int received = 0;
+                if (entries != null) {
+                    for (Map.Entry<String, List<StreamRecord>> stream : entries) {
+                        received = Math.max(received, stream.getValue().size());
+                        dispatchStream(stream);
+                    }
                 }
+                adaptReadBatch(capacity, received);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
-                logger.log(Level.WARNING, "Ack failed", e);
+                logger.log(Level.WARNING, "Error in consumeLoop", e);
+                if (e.getMessage().contains("NOGROUP")) {
+                    createGroups();
+                }
             }
         }
     }
 
     /**
-     * Main loop for consuming Redis Stream using XREADGROUP.
-     * Submits each entry to the worker pool for async handling.
+     * Waits until at least one in-flight permit is free and returns the number of free permits.
+     * Besides the consume loop only the reclaimer takes permits, and never more than are free.
      */
-    private void consumeLoop() {
-        while (!Thread.currentThread().isInterrupted()) {
+    private int awaitCapacity() throws InterruptedException {
+        int available = inFlight.availablePermits();
+        if (available > 0) return available;
+
+        readPauses.increment();
+        inFlight.acquire();
+        inFlight.release();
+        return inFlight.availablePermits();
+    }
+
+    private void adaptReadBatch(int capacity, int received) {
+        if (capacity < readBatch) {
+            readBatch = Math.max(minReadBatch, readBatch / 2);
+        } else if (received >= readCount) {
+            readBatch = Math.min(maxReadBatch, readBatch + minReadBatch);
+        }
+    }
+
+    /**
+     * All consumed streams, or with fewer free permits than streams one stream per permit, rotating
+     * between reads so that no stream is starved.
+     */
+    private List<String> selectReadStreams(Collection<String> streams, int available) {
+        List<String> all = streams instanceof List<String> list ? list : new ArrayList<>(streams);
+        if (available >= all.size()) return all;
+
+        List<String> selected = new ArrayList<>(available);
+        for (int i = 0; i < available; i++) {
+            selected.add(all.get((readOffset + i) % all.size()));
+        }
+        readOffset = (readOffset + available) % all.size();
+        return selected;
+    }
+
+    /**
+     * COUNT for the next XREADGROUP, per stream.
+     */
+    protected int getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Streams for the next XREADGROUP, a subset of {@link #getConsumedStreams()} while capacity is short.
+     */
+    protected List<String> getReadStreams() {
+        return readStreams;
+    }
+
+    /**
+     * Takes over entries that other consumers of the group read but did not acknowledge within
+     * RECLAIM_IDLE_MS, e.g. because their process died, and handles them like new entries.
+     * Expired requests are dropped by the deadline check of the handler. RECLAIM_IDLE_MS must exceed the
+     * longest running action, since entries still being handled are pending as well.
+     * Afterwards consumers without pending entries that were idle for CONSUMER_EXPIRY_MS are removed.
+     * Requires Redis 6.2+ (XAUTOCLAIM).
+     */
+    protected void reclaimPending() {
+        for (String stream : getConsumedStreams()) {
             try {
-                List<Map.Entry<String, List<StreamEntry>>> entries = pollStream();
-                if (entries != null) entries.forEach(this::dispatchStream);
+                reclaimStream(stream);
+                removeIdleConsumers(stream);
             } catch (Exception e) {
-                logger.log(Level.WARNING, "Error in consumeLoop", e);
-                if (e.getMessage().contains("NOGROUP")) {
-                    createGroup(REQUEST_STREAM, getServiceGroup());
+                logger.warning("Failed to reclaim pending entries of " + stream + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void reclaimStream(String stream) {
+        byte[] key = SafeEncoder.encode(stream);
+        byte[] group = SafeEncoder.encode(getServiceGroup());
+        byte[] consumer = SafeEncoder.encode(getConsumerName());
+        byte[] start = SafeEncoder.encode("0-0");
+
+        do {
+            // Claim only what can be handled now, the rest stays with its idle owner until the next round.
+            // Permits are taken before the claim, so the consume loop cannot take them in between and
+            // leave claimed entries unhandled with their idle time reset.
+            int capacity = Math.min(inFlight.availablePermits(), maxReadBatch);
+            if (capacity == 0 || !inFlight.tryAcquire(capacity)) return;
+
+            int unused = capacity;
+            try {
+                List<Object> reply = streamRedis.xautoclaim(
+                        key, group, consumer, reclaimIdleMillis, start,
+                        XAutoClaimParams.xAutoClaimParams().count(capacity)
+                );
+                if (reply == null || reply.size() < 2) return;
+
+                start = (byte[]) reply.get(0);
+                for (StreamRecord entry : StreamRecord.parseEntries(reply.get(1))) {
+                    // Deleted while pending, nothing to handle
+                    if (entry.fields().isEmpty()) {
+                        writer.xack(stream, getAckGroup(), entry.id(), deleteAcked && isDeletable(stream));
+                        continue;
+                    }
+
+                    reclaimedEntries.increment();
+                    try {
+                        workerPool.submit(() -> safeHandle(stream, entry));
+                        unused--;
+                    } catch (RejectedExecutionException e) {
+                        logger.warning("Worker pool overloaded. Reclaimed entry left pending: " + entry.id());
+                        return;
+                    }
                 }
+            } finally {
+                if (unused > 0) inFlight.release(unused);
             }
+        } while (!"0-0".equals(SafeEncoder.encode(start)));
+    }
+
+    private void removeIdleConsumers(String stream) {
+        String self = getConsumerName();
+        for (StreamConsumerInfo info : streamRedis.xinfoConsumers2(stream, getServiceGroup())) {
+            if (self.equals(info.getName()) || info.getPending() > 0 || info.getIdle() < consumerExpiryMillis) continue;
+
+            streamRedis.xgroupDelConsumer(stream, getServiceGroup(), info.getName());
+            removedConsumers.increment();
+            logger.info("Removed idle consumer " + info.getName() + " from " + stream);
         }
     }
 
+    /**
+     * Sums XLEN and MEMORY USAGE of the consumed streams into the service.streams.* gauges.
+     */
+    protected void refreshStreamStats() {
+        long length = 0;
+        long memory = 0;
+        for (String stream : getConsumedStreams()) {
+            try {
+                length += streamRedis.xlen(stream);
+                Long usage = streamRedis.memoryUsage(stream);
+                if (usage != null) memory += usage;
+            } catch (Exception e) {
+                logger.fine("Failed to read stats of " + stream + ": " + e.getMessage());
+            }
+        }
+        streamLength = length;
+        streamMemory = memory;
+    }
+
+    /**
+     * Whether entries of a consumed stream may be deleted once acknowledged. Not for the shared request
+     * stream, which every service group reads.
+     */
+    protected boolean isDeletable(String stream) {
+        return !REQUEST_STREAM.equals(stream);
+    }
+
+    /**
+     * Reads new entries of the given streams with XREADGROUP, keeping field values as raw bytes.
+     */
+    protected List<Map.Entry<String, List<StreamRecord>>> readGroup(
+            String group, String consumer, XReadGroupParams params, Collection<String> streams
+    ) {
+        @SuppressWarnings("unchecked")
+        Map.Entry<byte[], byte[]>[] offsets = new Map.Entry[streams.size()];
+        int i = 0;
+        for (String stream : streams) {
+            offsets[i++] = Map.entry(SafeEncoder.encode(stream), UNRECEIVED);
+        }
+
+        List<Object> reply = streamRedis.xreadGroup(SafeEncoder.encode(group), SafeEncoder.encode(consumer), params, offsets);
+        return StreamRecord.parseReadReply(reply);
+    }
+
+    /**
+     * Returns the Redis stream name for the request channel of a specific service.
+     */
+    public String getRequestStream(String service) {
+        return REQUEST_STREAM + ":" + service;
+    }
+
     /**
      * Returns the Redis stream name for the response channel scoped to a specific gateway ID.
      */
@@ -146,6 +450,14 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
         return SpruceServiceBase.RESPONSE_STREAM + ":" + id;
     }
 
+    /**
+     * Returns the Redis list for responses to a gateway using {@link ResponseTransport#LIST}.
+     * Pub/Sub responses use the channel named like the response stream.
+     */
+    public String getResponseList(String id) {
+        return getResponseStream(id) + ":list";
+    }
+
     /**
      * Ensures the Redis consumer group exists for the given stream.
      * If the group already exists (BUSYGROUP), it will be silently ignored.
@@ -161,24 +473,63 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
         }
     }
 
+    /**
+     * Ensures the consumer group exists on every consumed stream.
+     */
+    public void createGroups() {
+        for (String stream : getConsumedStreams()) {
+            createGroup(stream, getServiceGroup());
+        }
+    }
+
     /**
      * Publishes a GatewayEvent to the Redis Pub/Sub channel as a JSON envelope.
-     * Uses reflection to resolve the event type string.
+     * Uses reflection to resolve the event type string; the payload is encoded with
+     * the codec configured on {@link org.spruce.api.event.GatewayEventType}.
      */
     public void emit(GatewayEvent event) {
         try {
             String type = resolveEventType(event.getClass());
-            String payload = mapper.writeValueAsString(event);
-            emit(type, payload);
+            SpruceCodec codec = SpruceCodecs.forEvent(event.getClass());
+            if (codec == SpruceCodecs.json()) {
+                emit(type, mapper.writeValueAsString(event));
+            } else {
+                emit(type, codec.contentType(), codec.encode(event));
+            }
         } catch (Exception e) {
             logger.warning("Failed to emit event: " + e.getMessage());
         }
     }
 
     /**
-     * Publishes a raw event with custom type and JSON payload to the event channel.
+     * Publishes a raw event payload encoded with the codec of the given content type.
+     */
+    public void emit(String type, String contentType, byte[] data) {
+        if (eventTransport == EventTransport.STREAM) {
+            appendEvent(type, data, contentType);
+            return;
+        }
+
+        try {
+            streamRedis.publish(
+                    SpruceServiceBase.EVENT_CHANNEL,
+                    mapper.writeValueAsString(new GatewayEventEnvelope(type, null, contentType, data))
+            );
+        } catch (Exception e) {
+            logger.warning("Failed to emit event: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Publishes a raw event with custom type and JSON payload to the event channel
+     * (or the event stream, see {@link EventTransport}).
      */
     public void emit(String type, String payload) {
+        if (eventTransport == EventTransport.STREAM) {
+            appendEvent(type, payload, DEFAULT_CONTENT_TYPE);
+            return;
+        }
+
         try {
             streamRedis.publish(
                     SpruceServiceBase.EVENT_CHANNEL,
@@ -190,18 +541,33 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
     }
 
     /**
-     * Closes Redis connections and pools gracefully.
+     * Appends an event to the capped event stream through the batching writer.
+     * The stream is trimmed with EVENT_STREAM_MAXLEN or EVENT_STREAM_MAX_AGE_MS, see {@link StreamTrim}.
+     */
+    private void appendEvent(String type, Object payload, String contentType) {
+        writer.xadd(
+                EVENT_STREAM,
+                eventTrim.params(),
+                StreamRecord.fields("type", type, "payload", payload, "contentType", contentType),
+                e -> logger.warning("Failed to emit event: " + e.getMessage())
+        );
+    }
+
+    /**
+     * Stops consuming, flushes pending writes and closes Redis connections and pools gracefully.
      */
     public void shutdown() {
+        streamExecutor.shutdownNow();
+        workerPool.shutdownNow();
+        scheduler.shutdownNow();
+        writerExecutor.shutdownNow();
+        try {
+            writerExecutor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         streamRedis.close();
         pubSubRedis.close();
-        workerPool.shutdownNow();
-        ackExecutor.shutdownNow();
-        streamExecutor.shutdownNow();
-    }
-
-    protected String getAckStream() {
-        return REQUEST_STREAM;
     }
 
     protected String getAckGroup() {
@@ -212,6 +578,13 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
         return SERVICE_GROUP;
     }
 
+    /**
+     * Consumer name used with XREADGROUP; null disables reclaiming pending entries of other consumers.
+     */
+    protected String getConsumerName() {
+        return null;
+    }
+
     public JedisPooled getStreamRedis() {
         return streamRedis;
     }
@@ -219,5 +592,19 @@ public abstract class AbstractSpruceService extends GatewayEventResolver {
     public Jedis getPubSubRedis() {
         return pubSubRedis;
     }
+
+    public ServiceMetrics getMetrics() {
+        return metrics;
+    }
+
+    protected static int envInt(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
 
@@ -0,0 +1,85 @@
+package org.spruce.api.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit of a single action, see {@link ConcurrencyLimit}.
+ * <p>
+ * The adaptive mode follows the gradient approach: the limit is scaled by the ratio of long-term
+ * to short-term latency (between 0.5 and 1) plus a headroom of sqrt(limit), so it grows while
+ * latency is stable and shrinks as soon as requests start to queue somewhere downstream.
+ */
+public final class ActionLimiter {
+
+    private static final double SMOOTHING = 0.2;
+
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+
+    // Adaptive state, guarded by this
+    private double estimatedLimit;
+    private double shortRtt;
+    private double longRtt;
+
+    public ActionLimiter(int maxLimit, boolean adaptive) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.adaptive = adaptive;
+        this.limit = this.maxLimit;
+        this.estimatedLimit = this.maxLimit;
+    }
+
+    public static ActionLimiter of(ConcurrencyLimit annotation) {
+        return annotation == null ? null : new ActionLimiter(annotation.value(), annotation.adaptive());
+    }
+
+    /**
+     * Takes a slot if the action is under its limit.
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    /**
+     * Frees the slot taken by {@link #tryAcquire()} and records the latency of the invocation.
+     */
+    public void release(long latencyNanos) {
+        int current = inFlight.getAndDecrement();
+        if (adaptive) update(latencyNanos, current);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private synchronized void update(long rtt, int inFlightAtRelease) {
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+
+        shortRtt = shortRtt * 0.5 + rtt * 0.5;
+        longRtt = longRtt * 0.95 + rtt * 0.05;
+
+        // Recovering from a latency spike: let the baseline follow down quickly
+        if (longRtt > shortRtt * 2) longRtt *= 0.95;
+
+        // Don't grow a limit that isn't used
+        if (inFlightAtRelease < estimatedLimit / 2) return;
+
+        double gradient = Math.max(0.5, Math.min(1.0, longRtt / shortRtt));
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        estimatedLimit = Math.max(1, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,43 @@
+package org.spruce.api.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Batches calls of a {@link ServiceModel} method in the generated proxy.
+ * <p>
+ * Calls made within {@link #windowMs()} of the first one (or until {@link #maxSize()} calls
+ * are collected) are sent as a single call to the batch {@link #action()} with the list of
+ * requests as payload. The service must expose that action taking a list of requests and
+ * returning a list of responses in the same order:
+ * <p>
+ * {@code
+ * // Model
+ * @Batched(action = "getStatsBatch")
+ * CompletableFuture<StatsResponse> getStats(StatsRequest request);
+ *
+ * // Service
+ * @Action("getStatsBatch")
+ * public List<StatsResponse> getStatsBatch(List<StatsRequest> requests) { ... }
+ * }
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batched {
+    /**
+     * Name of the batch action on the service.
+     */
+    String action();
+
+    /**
+     * How long to wait for more calls after the first one, in milliseconds.
+     */
+    long windowMs() default 5;
+
+    /**
+     * Maximum number of calls per batch; a full batch is sent immediately.
+     */
+    int maxSize() default 100;
+}
@@ -0,0 +1,37 @@
+package org.spruce.api.service;
+
+import org.spruce.api.event.GatewayEvent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Lets the gateway cache responses of a {@link ServiceModel} method.
+ * <p>
+ * Responses are cached per service, action and payload for {@link #ttlMs()} milliseconds
+ * and dropped early when one of the {@link #invalidateOn()} global events is emitted.
+ * Events are given as classes like with {@link NearCache}; the gateway receives their event types.
+ * Only use it on idempotent actions.
+ * <p>
+ * Example:
+ * <p>
+ * {@code
+ * @Cacheable(ttlMs = 5000, invalidateOn = {RankUpdatedEvent.class})
+ * CompletableFuture<RankResponse> getRank(RankRequest request);
+ * }
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Cacheable {
+    /**
+     * Time to live of a cached response in milliseconds.
+     */
+    long ttlMs();
+
+    /**
+     * Events that invalidate cached responses, matched by their {@link org.spruce.api.event.GatewayEventType}.
+     */
+    Class<? extends GatewayEvent>[] invalidateOn() default {};
+}
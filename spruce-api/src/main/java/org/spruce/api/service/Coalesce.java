@@ -0,0 +1,18 @@
+package org.spruce.api.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Lets the gateway coalesce concurrent identical calls of a {@link ServiceModel} method.
+ * <p>
+ * Calls with the same service, action and payload that arrive while one of them is in flight
+ * share its single request to the service and all receive its response. Only use it on
+ * actions without side effects.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Coalesce {
+}
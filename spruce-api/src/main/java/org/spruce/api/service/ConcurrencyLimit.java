@@ -0,0 +1,30 @@
+package org.spruce.api.service;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caps concurrent invocations of a service action, on an {@code @Action} method, a {@link ServiceModel}
+ * interface method or its implementation.
+ * <p>
+ * Requests over the limit are not queued: the service answers at once with an OVERLOADED status,
+ * which the gateway reports as RESOURCE_EXHAUSTED. This keeps a slow action from taking all workers
+ * of the service.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyLimit {
+
+    /**
+     * Maximum concurrent invocations; the upper bound of the limit when adaptive.
+     */
+    int value();
+
+    /**
+     * Adjusts the limit between 1 and {@link #value()} from observed latency, lowering it as latency
+     * rises above its long-term average.
+     */
+    boolean adaptive() default false;
+}
@@ -0,0 +1,27 @@
+package org.spruce.api.service;
+
+import java.util.Locale;
+
+/**
+ * Controls how global events travel from emitters to gateways.
+ * <p>
+ * Read from the {@code EVENT_TRANSPORT} environment variable by gateways and services:
+ * - PUBSUB: fire-and-forget Redis Pub/Sub on {@code gateway:events}, default
+ * - STREAM: the capped Redis stream {@code gateway:events:log}; gateways can replay events
+ *   a reconnecting server missed
+ * <p>
+ * Gateways keep listening on Pub/Sub in both modes, so emitters can be switched one by one.
+ */
+public enum EventTransport {
+    PUBSUB,
+    STREAM;
+
+    public static EventTransport fromEnv() {
+        String value = System.getenv().getOrDefault("EVENT_TRANSPORT", PUBSUB.name());
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return PUBSUB;
+        }
+    }
+}
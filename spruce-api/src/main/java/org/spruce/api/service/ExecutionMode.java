@@ -0,0 +1,101 @@
+package org.spruce.api.service;
+
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * Controls which threads run request handlers and gateway callbacks.
+ * <p>
+ * Read from the {@code EXECUTION_MODE} environment variable:
+ * - PLATFORM: fixed pools of platform threads sized by {@code WORKER_THREADS}, default
+ * - VIRTUAL: one virtual thread per task (JDK 21+); concurrency is capped by {@code MAX_IN_FLIGHT}
+ *   instead of the pool size, so blocking handlers scale without thread pool tuning
+ * <p>
+ * The library targets Java 17, so virtual threads are created reflectively. On older runtimes
+ * VIRTUAL falls back to platform threads with a warning. Long-running loops (stream reader,
+ * writer, scheduler) keep their dedicated platform threads in both modes.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private static final Logger LOGGER = Logger.getLogger(ExecutionMode.class.getName());
+
+    public static ExecutionMode fromEnv() {
+        String value = System.getenv().getOrDefault("EXECUTION_MODE", PLATFORM.name());
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return PLATFORM;
+        }
+    }
+
+    /**
+     * Creates an executor for short tasks: a fixed pool of {@code threads} named {@code name-N},
+     * or a virtual thread per task in VIRTUAL mode. Pool threads are non-daemon, like those of
+     * the default thread factory, so the JVM does not exit while they run a task.
+     */
+    public ExecutorService newExecutor(String name, int threads) {
+        if (this == VIRTUAL) {
+            ThreadFactory factory = virtualThreadFactory(name);
+            if (factory != null) return newThreadPerTaskExecutor(factory);
+        }
+
+        ThreadFactory platform = new ThreadFactory() {
+            private int index;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                return new Thread(r, name + "-" + index++);
+            }
+        };
+        return Executors.newFixedThreadPool(threads, platform);
+    }
+
+    /**
+     * Default of {@code MAX_IN_FLIGHT}, the cap on entries a replica has read but not completed.
+     * With platform threads it is twice the worker threads, so a replica never sits on entries that
+     * other replicas could take; raise it for services with many async actions. With virtual threads
+     * it is the only concurrency limit and defaults to 1024.
+     */
+    public int defaultMaxInFlight(int workerThreads) {
+        return this == VIRTUAL && hasVirtualThreads() ? 1024 : Math.max(1, workerThreads * 2);
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns a factory for virtual threads named {@code name-N}, or null if the runtime has none.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warning("Virtual threads require Java 21, using platform threads for " + name);
+            return null;
+        }
+    }
+
+    private static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+}
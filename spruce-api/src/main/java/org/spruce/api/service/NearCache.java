@@ -0,0 +1,36 @@
+package org.spruce.api.service;
+
+import org.spruce.api.event.GatewayEvent;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Caches responses of a {@link ServiceModel} method in the calling plugin.
+ * <p>
+ * Models with at least one such method get a generated {@code __CachingProxy}, which is
+ * registered instead of the plain proxy. Responses are cached per request object (which
+ * must implement equals and hashCode, e.g. a data class) for {@link #ttlMs()} milliseconds,
+ * and the whole cache of the method is cleared when one of the {@link #invalidateOn()}
+ * events is received.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface NearCache {
+    /**
+     * Time to live of a cached response in milliseconds.
+     */
+    long ttlMs();
+
+    /**
+     * Maximum number of cached responses; the least recently used one is evicted first.
+     */
+    int maxSize() default 1000;
+
+    /**
+     * Events that clear the cache of this method.
+     */
+    Class<? extends GatewayEvent>[] invalidateOn() default {};
+}
@@ -0,0 +1,34 @@
+package org.spruce.api.service;
+
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Controls which Redis streams carry gateway requests.
+ * <p>
+ * Read from the {@code REQUEST_ROUTING} environment variable by both gateways and services:
+ * - SERVICE: every service has its own stream ({@code gateway:requests:{service}})
+ * - SHARED: legacy single stream ({@code gateway:requests}) read by every service, default
+ * - COMPAT: gateways write per-service streams, services read both their own and the shared stream
+ * <p>
+ * SHARED is the default and the fallback for unknown values, so a gateway or service upgraded without
+ * REQUEST_ROUTING keeps talking to peers that are not upgraded yet. To migrate, switch services to COMPAT
+ * first, then gateways to SERVICE, then services to SERVICE.
+ */
+public enum RequestRouting {
+    SERVICE,
+    SHARED,
+    COMPAT;
+
+    private static final Logger LOGGER = Logger.getLogger(RequestRouting.class.getName());
+
+    public static RequestRouting fromEnv() {
+        String value = System.getenv().getOrDefault("REQUEST_ROUTING", SHARED.name());
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Unknown REQUEST_ROUTING '" + value + "', using " + SHARED);
+            return SHARED;
+        }
+    }
+}
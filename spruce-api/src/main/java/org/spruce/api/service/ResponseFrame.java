@@ -0,0 +1,93 @@
+package org.spruce.api.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A response sent over Pub/Sub or a list (see {@link ResponseTransport}), where there are no stream fields.
+ * <p>
+ * Layout: version byte, then request id, content type and status each as an unsigned 16-bit length
+ * followed by the bytes (length 0 for none), then the response payload up to the end.
+ */
+public final class ResponseFrame {
+
+    private static final byte VERSION = 1;
+
+    private final byte[] requestId;
+    private final byte[] response;
+    private final String contentType;
+    private final String status;
+
+    private ResponseFrame(byte[] requestId, byte[] response, String contentType, String status) {
+        this.requestId = requestId;
+        this.response = response;
+        this.contentType = contentType;
+        this.status = status;
+    }
+
+    public static byte[] encode(byte[] requestId, byte[] response, String contentType, String status) {
+        byte[] type = contentType == null ? new byte[0] : contentType.getBytes(StandardCharsets.UTF_8);
+        byte[] state = status == null ? new byte[0] : status.getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 6 + requestId.length + type.length + state.length + response.length);
+        buffer.put(VERSION);
+        putShortBytes(buffer, requestId);
+        putShortBytes(buffer, type);
+        putShortBytes(buffer, state);
+        buffer.put(response);
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the frame is malformed or of an unknown version
+     */
+    public static ResponseFrame decode(byte[] frame) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            if (buffer.get() != VERSION) throw new IllegalArgumentException("Unknown response frame version");
+
+            byte[] requestId = getShortBytes(buffer);
+            byte[] type = getShortBytes(buffer);
+            byte[] state = getShortBytes(buffer);
+            byte[] response = new byte[buffer.remaining()];
+            buffer.get(response);
+
+            return new ResponseFrame(
+                    requestId,
+                    response,
+                    type.length == 0 ? null : new String(type, StandardCharsets.UTF_8),
+                    state.length == 0 ? null : new String(state, StandardCharsets.UTF_8)
+            );
+        } catch (RuntimeException e) {
+            if (e instanceof IllegalArgumentException) throw e;
+            throw new IllegalArgumentException("Malformed response frame", e);
+        }
+    }
+
+    public byte[] getRequestId() {
+        return requestId;
+    }
+
+    public byte[] getResponse() {
+        return response;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    private static void putShortBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static byte[] getShortBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,47 @@
+package org.spruce.api.service;
+
+import java.util.Locale;
+
+/**
+ * Controls how services deliver responses to a gateway.
+ * <p>
+ * Read by gateways from the {@code RESPONSE_TRANSPORT} environment variable; the gateway names the
+ * transport in every request ({@code replyVia}), so services need no configuration:
+ * - STREAM: XADD to {@code gateway:responses:{gatewayId}}, read with XREADGROUP and acknowledged; default,
+ *   responses survive a gateway reconnect
+ * - PUBSUB: PUBLISH to the channel {@code gateway:responses:{gatewayId}}; lowest latency, responses sent
+ *   while the gateway is not subscribed are lost
+ * - LIST: RPUSH to {@code gateway:responses:{gatewayId}:list}, read with BLPOP; one round trip per batch
+ *   and responses are kept until the list expires
+ * <p>
+ * Pub/Sub and list responses are {@link ResponseFrame}s. Gateways keep reading their response stream
+ * in every mode.
+ */
+public enum ResponseTransport {
+    STREAM,
+    PUBSUB,
+    LIST;
+
+    public static ResponseTransport fromEnv() {
+        return of(System.getenv().getOrDefault("RESPONSE_TRANSPORT", STREAM.name()));
+    }
+
+    /**
+     * Parses a transport name; null or unknown names mean STREAM.
+     */
+    public static ResponseTransport of(String name) {
+        if (name == null || name.isEmpty()) return STREAM;
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return STREAM;
+        }
+    }
+
+    /**
+     * Value of the request's {@code replyVia} field; null for STREAM, which older services assume.
+     */
+    public String wireName() {
+        return this == STREAM ? null : name().toLowerCase(Locale.ROOT);
+    }
+}
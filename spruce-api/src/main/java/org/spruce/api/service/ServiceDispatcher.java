@@ -0,0 +1,36 @@
+package org.spruce.api.service;
+
+import org.spruce.api.codec.SpruceCodec;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Routes actions of a service implementation without reflection.
+ * <p>
+ * Generated at compile time as {@code Xxx__Dispatcher} by spruce-processor-service and picked up by
+ * {@link SpruceServiceBase} when present. Implementations take the service instance as their only
+ * constructor argument.
+ */
+public interface ServiceDispatcher {
+
+    /**
+     * Names of all actions this dispatcher handles.
+     */
+    Set<String> actions();
+
+    /**
+     * Decodes the payload, invokes the action and encodes its result.
+     *
+     * @throws IllegalArgumentException if the action is unknown
+     */
+    CompletableFuture<byte[]> dispatch(String action, byte[] payload, SpruceCodec codec) throws Exception;
+
+    /**
+     * Limiters of actions declared with {@link ConcurrencyLimit}, by action name.
+     */
+    default Map<String, ActionLimiter> limiters() {
+        return Map.of();
+    }
+}
@@ -0,0 +1,98 @@
+package org.spruce.api.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Lightweight in-process metrics for services and gateways.
+ * <p>
+ * Counters and summaries are created once and kept in fields by their owners,
+ * so recording a value never allocates. Use {@link #snapshot()} to read all values.
+ */
+public class ServiceMetrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counter registered under the given name, creating it if needed.
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Returns the summary (count, total, max) registered under the given name, creating it if needed.
+     */
+    public Summary summary(String name) {
+        return summaries.computeIfAbsent(name, n -> new Summary());
+    }
+
+    /**
+     * Registers a value that is sampled on every snapshot.
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Removes a gauge only if it is still registered with this supplier, so an owner never removes
+     * a gauge that a newer owner registered under the same name.
+     */
+    public void removeGauge(String name, LongSupplier supplier) {
+        gauges.remove(name, supplier);
+    }
+
+    /**
+     * Returns the current value of every metric, sorted by name.
+     * Summaries are expanded to {@code name.count}, {@code name.total} and {@code name.max}.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        summaries.forEach((name, summary) -> {
+            values.put(name + ".count", summary.count.sum());
+            values.put(name + ".total", summary.total.sum());
+            values.put(name + ".max", summary.max.get());
+        });
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /**
+     * Distribution of recorded values reduced to count, total and maximum.
+     */
+    public static final class Summary {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long total() {
+            return total.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+    }
+}
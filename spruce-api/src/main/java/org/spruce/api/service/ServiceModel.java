@@ -1,5 +1,7 @@
 package org.spruce.api.service;
 
+import org.spruce.api.codec.SpruceCodecs;
+
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -12,4 +14,9 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface ServiceModel {
     String value();
+
+    /**
+     * Content type of the codec used for requests and responses of this model, see {@link SpruceCodecs}.
+     */
+    String contentType() default SpruceCodecs.JSON;
 }
@@ -1,14 +1,21 @@
 package org.spruce.api.service;
 
+import org.spruce.api.codec.ActionCodec;
+import org.spruce.api.codec.SpruceCodec;
+import org.spruce.api.codec.SpruceCodecs;
 import redis.clients.jedis.*;
-import redis.clients.jedis.params.XAddParams;
 import redis.clients.jedis.params.XReadGroupParams;
-import redis.clients.jedis.resps.StreamEntry;
 
 import java.lang.annotation.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 /**
@@ -16,7 +23,7 @@ import java.util.logging.Logger;
  * <p>
  * It:
  * - Connects to Redis Stream and Pub/Sub
- * - Handles incoming actions via @Action-annotated methods
+ * - Handles incoming actions via @Action-annotated methods, through a generated {@link ServiceDispatcher} when present
  * - Sends responses back to gateway
  * - Emits events to all interested listeners
  * <p>
@@ -24,11 +31,32 @@ import java.util.logging.Logger;
  */
 public abstract class SpruceServiceBase extends AbstractSpruceService {
 
+    /**
+     * Response status of requests rejected by a {@link ConcurrencyLimit}.
+     */
+    public static final String STATUS_OVERLOADED = "OVERLOADED";
+
+    /**
+     * Response status of encoded errors: unknown actions and content types, and failed actions.
+     * The payload is still passed to the caller, but gateways never cache it.
+     */
+    public static final String STATUS_ERROR = "ERROR";
+
     protected final String serviceName;
     protected final String serviceGroup;
     protected final String consumerName;
+    protected final List<String> requestStreams = new ArrayList<>();
 
+    /**
+     * Action methods found by reflection; empty when a generated dispatcher is used.
+     */
     protected final Map<String, Method> handlers = new ConcurrentHashMap<>();
+    private final Map<String, ServiceDispatcher> dispatchers = new HashMap<>();
+    private final Map<String, ActionLimiter> limiters = new HashMap<>();
+    private final LongAdder shedRequests = metrics.counter("service.requests.shed");
+    private final LongAdder overloadedRequests = metrics.counter("service.requests.overloaded");
+    private final long responseListTtlMillis = envInt("RESPONSE_LIST_TTL_MS", 60_000);
+    private final StreamTrim responseTrim = StreamTrim.fromEnv("RESPONSE_STREAM", 10_000);
 
     protected final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
@@ -42,8 +70,17 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
         this.serviceGroup = SERVICE_GROUP + ":" + serviceName;
         this.consumerName = serviceName + "-" + UUID.randomUUID().toString().substring(0, 8);
 
+        switch (requestRouting) {
+            case SERVICE -> requestStreams.add(getRequestStream(serviceName));
+            case SHARED -> requestStreams.add(REQUEST_STREAM);
+            case COMPAT -> {
+                requestStreams.add(getRequestStream(serviceName));
+                requestStreams.add(REQUEST_STREAM);
+            }
+        }
+
         registerActions();
-        createGroup(REQUEST_STREAM, getServiceGroup());
+        createGroups();
     }
 
     @Override
@@ -54,9 +91,9 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
 
     /**
      * Starts the service processing:
-     * - Consumes Redis Stream entries
+     * - Consumes Redis Stream entries (own request stream and/or the shared one, see {@link RequestRouting})
      * - Handles each entry in a worker thread
-     * - Acknowledges processed entries in a separate thread
+     * - Writes responses and acknowledgements in pipelined batches
      */
     @Override
     public void start() {
@@ -64,92 +101,202 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
         super.start();
     }
 
+    /**
+     * Handles a single stream entry and waits for the action to complete.
+     */
+    @Override
+    public void handleEntry(StreamRecord entry) {
+        handleEntryAsync(entry).join();
+    }
+
     /**
      * Handles a single stream entry:
-     * - Parses fields
-     * - Invokes the appropriate @Action method
-     * - Sends response to the gateway response stream
-     * - Queues the entry ID for XACK
+     * - Parses fields (payloads stay raw bytes)
+     * - Drops entries whose deadline has passed without invoking the action (counted as service.requests.shed)
+     * - Answers with an OVERLOADED status when the action is at its {@link ConcurrencyLimit}
+     * - Invokes the appropriate @Action method, decoding and encoding with the codec of the request content type;
+     *   failures are answered with an encoded error and the ERROR status
+     * - Queues the response for the gateway response stream once the action completes, without holding
+     *   the worker thread for actions returning CompletableFuture or suspend functions
+     * <p>
+     * The returned future completes once the response is written and the entry is acknowledged then;
+     * if the write fails it completes exceptionally and the entry stays pending until it is reclaimed.
      */
     @Override
-    public void handleEntry(StreamEntry entry) {
-        var fields = entry.getFields();
-        if (!serviceName.equals(fields.get("service"))) return;
+    protected CompletableFuture<Void> handleEntryAsync(StreamRecord entry) {
+        // Only the shared stream carries requests for other services
+        if (!serviceName.equals(entry.get("service"))) return CompletableFuture.completedFuture(null);
 
-        String requestId = fields.get("requestId");
-        String action = fields.get("action");
-        String payload = fields.get("payload");
-        String gatewayId = fields.get("gatewayId");
+        byte[] requestId = entry.getBytes("requestId");
+        String action = entry.get("action");
+        byte[] payload = entry.getBytes("payload");
+        String gatewayId = entry.get("gatewayId");
+        ResponseTransport transport = ResponseTransport.of(entry.get("replyVia"));
 
         if (requestId == null || action == null || gatewayId == null) {
-            logger.warning("Invalid message: missing fields: " + fields);
-            return;
+            logger.warning("Invalid message: missing fields: " + entry.fields().keySet());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // The gateway has already answered the caller with a timeout, skip the work and ack the entry
+        if (isExpired(entry.get("deadline"))) {
+            shedRequests.increment();
+            logger.fine("Dropped expired request " + action + " from " + gatewayId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        SpruceCodec codec;
+        try {
+            codec = SpruceCodecs.get(entry.get("contentType"));
+        } catch (IllegalArgumentException e) {
+            codec = SpruceCodecs.json();
+            return respond(gatewayId, transport, requestId, error(codec, e.getMessage()), codec, STATUS_ERROR);
         }
 
-        String response = handleRequest(action, payload);
+        // Over the action's concurrency limit: answer right away instead of queueing
+        ActionLimiter limiter = limiters.get(action);
+        if (limiter != null && !limiter.tryAcquire()) {
+            overloadedRequests.increment();
+            return respond(gatewayId, transport, requestId, error(codec, "Action " + action + " is overloaded"), codec, STATUS_OVERLOADED);
+        }
 
-        streamRedis.xadd(
-                getResponseStream(gatewayId),
-                XAddParams.xAddParams(),
-                Map.of(
-                        "requestId", requestId,
-                        "response", response
-                )
-        );
+        long started = System.nanoTime();
+        CompletableFuture<byte[]> response = dispatch(action, payload, codec);
+        if (limiter != null) {
+            response = response.whenComplete((bytes, e) -> limiter.release(System.nanoTime() - started));
+        }
+
+        SpruceCodec responseCodec = codec;
+        return response.handle((bytes, e) -> e == null
+                ? respond(gatewayId, transport, requestId, bytes, responseCodec, null)
+                : respond(gatewayId, transport, requestId, failure(responseCodec, action, e), responseCodec, STATUS_ERROR)
+        ).thenCompose(written -> written);
+    }
+
+    /**
+     * Queues a response over the transport the gateway asked for; status is only set for failures.
+     * {@link #STATUS_ERROR} marks an encoded error, which the gateway passes through as a payload but never
+     * caches; {@link #STATUS_OVERLOADED} marks a rejected request, which the gateway fails with a gRPC status.
+     * List responses expire after RESPONSE_LIST_TTL_MS unless the gateway pops them first; response streams
+     * are trimmed with RESPONSE_STREAM_MAXLEN or RESPONSE_STREAM_MAX_AGE_MS.
+     * The returned future completes once the response is written.
+     */
+    private CompletableFuture<Void> respond(String gatewayId, ResponseTransport transport, byte[] requestId, byte[] response,
+                         SpruceCodec codec, String status) {
+        return switch (transport) {
+            case PUBSUB -> writer.publish(
+                    getResponseStream(gatewayId),
+                    ResponseFrame.encode(requestId, response, codec.contentType(), status)
+            );
+            case LIST -> writer.rpush(
+                    getResponseList(gatewayId),
+                    ResponseFrame.encode(requestId, response, codec.contentType(), status),
+                    responseListTtlMillis
+            );
+            case STREAM -> writer.xaddAsync(
+                    getResponseStream(gatewayId),
+                    responseTrim.params(),
+                    StreamRecord.fields(
+                            "requestId", requestId,
+                            "response", response,
+                            "contentType", codec.contentType(),
+                            "status", status
+                    )
+            );
+        };
+    }
+
+    /**
+     * Whether a request deadline (epoch millis, set by the gateway) has passed.
+     * Entries without a deadline, e.g. from older gateways, never expire.
+     */
+    private static boolean isExpired(String deadline) {
+        if (deadline == null) return false;
+        try {
+            return System.currentTimeMillis() > Long.parseLong(deadline);
+        } catch (NumberFormatException e) {
+            return false;
+        }
     }
 
     @Override
-    protected List<Map.Entry<String, List<StreamEntry>>> pollStream() {
-        return streamRedis.xreadGroup(
+    protected List<Map.Entry<String, List<StreamRecord>>> pollStream() {
+        return readGroup(
                 getServiceGroup(),
                 consumerName,
-                XReadGroupParams.xReadGroupParams().block(5000).count(10),
-                Map.of(REQUEST_STREAM, StreamEntryID.UNRECEIVED_ENTRY)
+                XReadGroupParams.xReadGroupParams().block(5000).count(getReadCount()),
+                getReadStreams()
         );
     }
 
+    @Override
+    protected Collection<String> getConsumedStreams() {
+        return requestStreams;
+    }
+
     @Override
     protected String getServiceGroup() {
         return serviceGroup;
     }
 
-    protected String handleRequest(String action, String payloadJson) {
-        try {
-            Method method = handlers.get(action);
-            if (method == null) {
-                return error("Unknown action: " + action);
-            }
+    @Override
+    protected String getConsumerName() {
+        return consumerName;
+    }
 
-            Class<?>[] params = method.getParameterTypes();
-            Object result;
-            if (params.length == 0) {
-                result = method.invoke(this);
-            } else {
-                Object param = mapper.readValue(payloadJson, params[0]);
-                result = method.invoke(this, param);
-            }
+    protected byte[] handleRequest(String action, byte[] payload, SpruceCodec codec) {
+        return handleRequestAsync(action, payload, codec).join();
+    }
 
-            if (result instanceof CompletableFuture<?> future) {
-                result = future.join();
-            }
+    /**
+     * Dispatches an action and returns its encoded result; failures complete with an encoded error.
+     */
+    protected CompletableFuture<byte[]> handleRequestAsync(String action, byte[] payload, SpruceCodec codec) {
+        return dispatch(action, payload, codec).exceptionally(e -> failure(codec, action, e));
+    }
+
+    /**
+     * Dispatches an action; unknown actions and failed actions complete exceptionally.
+     */
+    private CompletableFuture<byte[]> dispatch(String action, byte[] payload, SpruceCodec codec) {
+        ServiceDispatcher dispatcher = dispatchers.get(action);
+        if (dispatcher == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown action: " + action));
+        }
 
-            return mapper.writeValueAsString(result);
+        try {
+            return dispatcher.dispatch(action, payload, codec);
         } catch (Exception e) {
-            logger.warning("Failed to handle request [" + action + "]: " + e.getMessage());
-            return error(e.getMessage());
+            return CompletableFuture.failedFuture(e);
         }
     }
 
-    private String error(String message) {
+    private byte[] failure(SpruceCodec codec, String action, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        logger.warning("Failed to handle request [" + action + "]: " + cause.getMessage());
+        return error(codec, cause.getMessage());
+    }
+
+    private byte[] error(SpruceCodec codec, String message) {
         try {
-            return mapper.writeValueAsString(Map.of("status", "ERROR", "message", message));
+            return codec.encode(Map.of("status", "ERROR", "message", String.valueOf(message)));
         } catch (Exception e) {
             logger.warning("Failed to serialize error: " + e.getMessage());
-            return "ERROR";
+            return "ERROR".getBytes(StandardCharsets.UTF_8);
         }
     }
 
     private void registerActions() {
+        ServiceDispatcher generated = loadDispatcher();
+        if (generated != null) {
+            for (String action : generated.actions()) {
+                dispatchers.put(action, generated);
+            }
+            generated.limiters().forEach(this::registerLimiter);
+            logger.info("Registered " + dispatchers.size() + " actions from " + generated.getClass().getSimpleName());
+            return;
+        }
+
         for (Method method : getClass().getDeclaredMethods()) {
             Action annotation = method.getAnnotation(Action.class);
             if (annotation != null) {
@@ -159,6 +306,7 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
 
                 handlers.put(annotation.value(), method);
                 logger.info("Registered action: " + annotation.value() + " → " + method.getName());
+                registerLimiter(annotation.value(), ActionLimiter.of(method.getAnnotation(ConcurrencyLimit.class)));
             }
         }
 
@@ -175,6 +323,8 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
                     Method implMethod = getClass().getMethod(ifaceMethod.getName(), ifaceMethod.getParameterTypes());
                     if (!handlers.containsKey(action)) {
                         handlers.put(action, implMethod);
+                        ConcurrencyLimit limit = implMethod.getAnnotation(ConcurrencyLimit.class);
+                        registerLimiter(action, ActionLimiter.of(limit != null ? limit : ifaceMethod.getAnnotation(ConcurrencyLimit.class)));
                         logger.info("Registered service model action: " + action + " → " + implMethod.getName());
                     }
                 } catch (NoSuchMethodException e) {
@@ -182,6 +332,99 @@ public abstract class SpruceServiceBase extends AbstractSpruceService {
                 }
             }
         }
+
+        for (Map.Entry<String, Method> handler : handlers.entrySet()) {
+            dispatchers.put(handler.getKey(), new MethodHandleDispatcher(handler.getKey(), handler.getValue()));
+        }
+    }
+
+    private void registerLimiter(String action, ActionLimiter limiter) {
+        if (limiter == null) return;
+
+        limiters.put(action, limiter);
+        metrics.gauge("service.action." + action + ".limit", limiter::getLimit);
+        metrics.gauge("service.action." + action + ".in_flight", limiter::getInFlight);
+    }
+
+    /**
+     * Instantiates the {@code Xxx__Dispatcher} generated for this class, if any.
+     */
+    private ServiceDispatcher loadDispatcher() {
+        Class<?> type = getClass();
+        try {
+            Class<?> dispatcherClass = Class.forName(type.getName() + "__Dispatcher", true, type.getClassLoader());
+            return (ServiceDispatcher) dispatcherClass.getConstructor(type).newInstance(this);
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            logger.warning("Failed to load generated dispatcher, falling back to reflection: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Fallback for services without a generated dispatcher: invokes a method through a bound
+     * {@link MethodHandle}, resolving parameter and result types once at startup.
+     */
+    private final class MethodHandleDispatcher implements ServiceDispatcher {
+
+        private final String action;
+        private final MethodHandle handle;
+        private final boolean hasParameter;
+        private final ActionCodec actionCodec;
+
+        MethodHandleDispatcher(String action, Method method) {
+            this.action = action;
+            this.hasParameter = method.getParameterCount() > 0;
+            this.actionCodec = new ActionCodec(
+                    hasParameter ? method.getGenericParameterTypes()[0] : null,
+                    resultType(method.getGenericReturnType())
+            );
+
+            try {
+                method.setAccessible(true);
+                this.handle = MethodHandles.lookup().unreflect(method).bindTo(SpruceServiceBase.this);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access action method: " + method, e);
+            }
+        }
+
+        @Override
+        public Set<String> actions() {
+            return Set.of(action);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> dispatch(String action, byte[] payload, SpruceCodec codec) throws Exception {
+            Object result;
+            try {
+                result = hasParameter ? handle.invoke(actionCodec.decode(codec, payload)) : handle.invoke();
+            } catch (Exception | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+
+            if (result instanceof CompletableFuture<?> future) {
+                return future.thenApply(value -> {
+                    try {
+                        return actionCodec.encode(codec, value);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            }
+
+            return CompletableFuture.completedFuture(actionCodec.encode(codec, result));
+        }
+
+        private static Type resultType(Type returnType) {
+            if (returnType instanceof ParameterizedType parameterized && parameterized.getRawType() == CompletableFuture.class) {
+                return parameterized.getActualTypeArguments()[0];
+            }
+            if (returnType instanceof Class<?> type && type.isPrimitive()) return Object.class;
+            return returnType instanceof Class<?> || returnType instanceof ParameterizedType ? returnType : Object.class;
+        }
     }
 
     /**
@@ -0,0 +1,270 @@
+package org.spruce.api.service;
+
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.params.XAddParams;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Batching write path for Redis Streams.
+ * <p>
+ * Callers queue XADD, XACK, PUBLISH and RPUSH operations without blocking; a single writer thread
+ * flushes them in one Jedis pipeline once maxBatchSize operations are queued or
+ * lingerMicros have passed since the first one. Acks are merged into multi-ID XACK
+ * commands and always sent after the other writes of the same batch, so an entry is never
+ * acknowledged before its response is written. Acked entries may be deleted with XDEL right after.
+ * <p>
+ * A batch may still succeed while one of its writes fails, and a full queue rejects writes; callers that
+ * acknowledge an entry for a write use the future returned by {@link #xaddAsync}, {@link #publish}
+ * or {@link #rpush} and ack only once it completes normally.
+ */
+public class StreamBatchWriter implements Runnable {
+
+    private final JedisPooled redis;
+    private final Logger logger;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final BlockingQueue<Op> queue;
+
+    private final ServiceMetrics.Summary batchSizes;
+    private final LongAdder addCount;
+    private final LongAdder ackCount;
+    private final LongAdder deleteCount;
+    private final LongAdder pushCount;
+    private final LongAdder failedCount;
+    private final LongAdder rejectedCount;
+
+    public StreamBatchWriter(JedisPooled redis, Logger logger, ServiceMetrics metrics,
+                             int maxBatchSize, long lingerMicros, int capacity) {
+        this.redis = redis;
+        this.logger = logger;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, lingerMicros));
+        this.queue = new ArrayBlockingQueue<>(Math.max(this.maxBatchSize, capacity));
+
+        this.batchSizes = metrics.summary("writer.batch.size");
+        this.addCount = metrics.counter("writer.xadd");
+        this.ackCount = metrics.counter("writer.xack");
+        this.deleteCount = metrics.counter("writer.xdel");
+        this.pushCount = metrics.counter("writer.push");
+        this.failedCount = metrics.counter("writer.failed");
+        this.rejectedCount = metrics.counter("writer.rejected");
+        metrics.gauge("writer.queue.size", queue::size);
+    }
+
+    /**
+     * Queues an XADD of binary fields (see {@link StreamRecord#fields}). Returns false if the write queue is full.
+     */
+    public boolean xadd(String stream, XAddParams params, Map<byte[], byte[]> fields) {
+        return xadd(stream, params, fields, null);
+    }
+
+    /**
+     * Queues an XADD and reports a failed or rejected write to onError.
+     */
+    public boolean xadd(String stream, XAddParams params, Map<byte[], byte[]> fields, Consumer<Exception> onError) {
+        return offer(new Add(stream, params, fields, onError, null), onError);
+    }
+
+    /**
+     * Queues an XADD; the returned future completes once the entry is written, or exceptionally if the
+     * write failed or the queue was full.
+     */
+    public CompletableFuture<Void> xaddAsync(String stream, XAddParams params, Map<byte[], byte[]> fields) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        Consumer<Exception> onError = written::completeExceptionally;
+        offer(new Add(stream, params, fields, onError, written), onError);
+        return written;
+    }
+
+    /**
+     * Queues an XACK. Returns false if the write queue is full; the entry then stays pending.
+     */
+    public boolean xack(String stream, String group, StreamEntryID id) {
+        return xack(stream, group, id, false);
+    }
+
+    /**
+     * Queues an XACK, followed by an XDEL of the entry if delete is set. Only delete entries of streams
+     * read by a single consumer group, other groups may not have read them yet.
+     */
+    public boolean xack(String stream, String group, StreamEntryID id, boolean delete) {
+        return offer(new Ack(stream, group, id, delete), null);
+    }
+
+    /**
+     * Queues a binary PUBLISH; the returned future completes like the one of {@link #xaddAsync}.
+     * Completing does not mean anybody was subscribed.
+     */
+    public CompletableFuture<Void> publish(String channel, byte[] message) {
+        return push(new Push(channel, message, false, 0, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues an RPUSH followed by a PEXPIRE of the list, so lists nobody reads disappear;
+     * the returned future completes like the one of {@link #xaddAsync}.
+     */
+    public CompletableFuture<Void> rpush(String key, byte[] value, long expireMillis) {
+        return push(new Push(key, value, true, expireMillis, new CompletableFuture<>()));
+    }
+
+    private CompletableFuture<Void> push(Push push) {
+        offer(push, push.written()::completeExceptionally);
+        return push.written();
+    }
+
+    private boolean offer(Op op, Consumer<Exception> onError) {
+        if (queue.offer(op)) return true;
+
+        rejectedCount.increment();
+        if (onError != null) {
+            onError.accept(new IllegalStateException("Stream write queue is full"));
+        }
+        return false;
+    }
+
+    /**
+     * Writer loop: collects a batch and flushes it until the thread is interrupted.
+     * Operations still queued on interruption are flushed once before returning.
+     */
+    @Override
+    public void run() {
+        List<Op> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Op first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                collect(batch);
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Stream writer failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) flush(batch);
+    }
+
+    private void collect(List<Op> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatchSize) {
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) continue;
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return;
+
+            Op next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) return;
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<Op> batch) {
+        Map<String, Map<String, List<StreamEntryID>>> acks = new LinkedHashMap<>();
+        Map<String, List<StreamEntryID>> deletes = new LinkedHashMap<>();
+        List<Map.Entry<Add, Response<byte[]>>> adds = new ArrayList<>(batch.size());
+        List<Map.Entry<Push, Response<Long>>> pushes = new ArrayList<>();
+
+        try (var pipeline = redis.pipelined()) {
+            for (Op op : batch) {
+                if (op instanceof Add add) {
+                    adds.add(Map.entry(add, pipeline.xadd(SafeEncoder.encode(add.stream()), add.params(), add.fields())));
+                } else if (op instanceof Push push) {
+                    byte[] key = SafeEncoder.encode(push.key());
+                    if (push.list()) {
+                        pushes.add(Map.entry(push, pipeline.rpush(key, push.value())));
+                        if (push.expireMillis() > 0) pipeline.pexpire(key, push.expireMillis());
+                    } else {
+                        pushes.add(Map.entry(push, pipeline.publish(key, push.value())));
+                    }
+                } else if (op instanceof Ack ack) {
+                    acks.computeIfAbsent(ack.stream(), s -> new LinkedHashMap<>())
+                            .computeIfAbsent(ack.group(), g -> new ArrayList<>())
+                            .add(ack.id());
+                    if (ack.delete()) deletes.computeIfAbsent(ack.stream(), s -> new ArrayList<>()).add(ack.id());
+                }
+            }
+
+            int ackTotal = 0;
+            for (var stream : acks.entrySet()) {
+                for (var group : stream.getValue().entrySet()) {
+                    List<StreamEntryID> ids = group.getValue();
+                    pipeline.xack(stream.getKey(), group.getKey(), ids.toArray(new StreamEntryID[0]));
+                    ackTotal += ids.size();
+                }
+            }
+
+            int deleteTotal = 0;
+            for (var stream : deletes.entrySet()) {
+                List<StreamEntryID> ids = stream.getValue();
+                pipeline.xdel(stream.getKey(), ids.toArray(new StreamEntryID[0]));
+                deleteTotal += ids.size();
+            }
+
+            pipeline.sync();
+
+            batchSizes.record(batch.size());
+            addCount.add(adds.size());
+            pushCount.add(pushes.size());
+            ackCount.add(ackTotal);
+            deleteCount.add(deleteTotal);
+        } catch (Exception e) {
+            failedCount.add(batch.size());
+            logger.log(Level.WARNING, "Batch write of " + batch.size() + " operations failed", e);
+            // Every write of the batch, including those not yet pipelined when it failed
+            for (Op op : batch) {
+                if (op instanceof Add add && add.onError() != null) add.onError().accept(e);
+                if (op instanceof Push push) push.written().completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (var add : adds) {
+            try {
+                add.getValue().get();
+                if (add.getKey().written() != null) add.getKey().written().complete(null);
+            } catch (Exception e) {
+                failedCount.increment();
+                logger.warning("XADD to " + add.getKey().stream() + " failed: " + e.getMessage());
+                if (add.getKey().onError() != null) add.getKey().onError().accept(e);
+            }
+        }
+        for (var push : pushes) {
+            try {
+                push.getValue().get();
+                push.getKey().written().complete(null);
+            } catch (Exception e) {
+                failedCount.increment();
+                logger.warning("Write to " + push.getKey().key() + " failed: " + e.getMessage());
+                push.getKey().written().completeExceptionally(e);
+            }
+        }
+    }
+
+    private sealed interface Op permits Add, Ack, Push {}
+
+    private record Add(String stream, XAddParams params, Map<byte[], byte[]> fields,
+                       Consumer<Exception> onError, CompletableFuture<Void> written) implements Op {}
+
+    private record Ack(String stream, String group, StreamEntryID id, boolean delete) implements Op {}
+
+    private record Push(String key, byte[] value, boolean list, long expireMillis,
+                        CompletableFuture<Void> written) implements Op {}
+}
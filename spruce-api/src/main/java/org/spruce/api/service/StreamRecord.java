@@ -0,0 +1,94 @@
+package org.spruce.api.service;
+
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.util.SafeEncoder;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binary-safe Redis Stream entry.
+ * <p>
+ * Field names are decoded once, field values stay raw bytes so payloads can be passed
+ * between Redis and gRPC without being decoded as text.
+ */
+public record StreamRecord(StreamEntryID id, Map<String, byte[]> fields) {
+
+    private static final Map<String, byte[]> ENCODED_NAMES = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the field value decoded as UTF-8, or null if absent.
+     */
+    public String get(String field) {
+        byte[] value = fields.get(field);
+        return value == null ? null : SafeEncoder.encode(value);
+    }
+
+    /**
+     * Returns the raw field value, or null if absent.
+     */
+    public byte[] getBytes(String field) {
+        return fields.get(field);
+    }
+
+    /**
+     * Builds a binary field map for XADD from alternating names and values.
+     * Values may be {@code byte[]} (written as-is) or any other object (written as its UTF-8 string).
+     * Null values are skipped.
+     */
+    public static Map<byte[], byte[]> fields(Object... namesAndValues) {
+        Map<byte[], byte[]> fields = new LinkedHashMap<>(namesAndValues.length);
+        for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+            Object value = namesAndValues[i + 1];
+            if (value == null) continue;
+
+            byte[] name = ENCODED_NAMES.computeIfAbsent((String) namesAndValues[i], SafeEncoder::encode);
+            fields.put(name, value instanceof byte[] bytes ? bytes : SafeEncoder.encode(value.toString()));
+        }
+        return fields;
+    }
+
+    /**
+     * Parses a raw binary XREAD / XREADGROUP reply (RESP2):
+     * {@code [[stream, [[id, [field, value, ...]], ...]], ...]}.
+     */
+    public static List<Map.Entry<String, List<StreamRecord>>> parseReadReply(List<?> reply) {
+        if (reply == null) return null;
+
+        List<Map.Entry<String, List<StreamRecord>>> streams = new ArrayList<>(reply.size());
+        for (Object item : reply) {
+            List<?> stream = (List<?>) item;
+            String name = SafeEncoder.encode((byte[]) stream.get(0));
+            streams.add(Map.entry(name, parseEntries(stream.get(1))));
+        }
+        return streams;
+    }
+
+    /**
+     * Parses a raw list of stream entries: {@code [[id, [field, value, ...]], ...]}.
+     * Entries deleted while pending (null field list) are returned with no fields.
+     */
+    public static List<StreamRecord> parseEntries(Object rawEntries) {
+        if (rawEntries == null) return List.of();
+
+        List<?> entries = (List<?>) rawEntries;
+        List<StreamRecord> records = new ArrayList<>(entries.size());
+        for (Object item : entries) {
+            List<?> entry = (List<?>) item;
+            StreamEntryID id = new StreamEntryID(SafeEncoder.encode((byte[]) entry.get(0)));
+
+            List<?> rawFields = (List<?>) entry.get(1);
+            if (rawFields == null) {
+                records.add(new StreamRecord(id, Map.of()));
+                continue;
+            }
+
+            Map<String, byte[]> fields = new HashMap<>(rawFields.size());
+            for (int i = 0; i + 1 < rawFields.size(); i += 2) {
+                fields.put(SafeEncoder.encode((byte[]) rawFields.get(i)), (byte[]) rawFields.get(i + 1));
+            }
+            records.add(new StreamRecord(id, fields));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,50 @@
+package org.spruce.api.service;
+
+import redis.clients.jedis.params.XAddParams;
+
+/**
+ * Trimming applied by every XADD to a stream, read from {@code {PREFIX}_MAXLEN} and {@code {PREFIX}_MAX_AGE_MS}.
+ * <p>
+ * With a max age, entries older than it are trimmed (MINID, Redis 6.2+); otherwise the stream is kept at
+ * about maxLen entries (MAXLEN). XADD takes only one of both. Trimming is approximate, so Redis only drops
+ * whole radix tree nodes; 0 disables either limit.
+ */
+public final class StreamTrim {
+
+    private final long maxLen;
+    private final long maxAgeMillis;
+    private final XAddParams fixed;
+
+    public StreamTrim(long maxLen, long maxAgeMillis) {
+        this.maxLen = Math.max(0, maxLen);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        this.fixed = this.maxLen > 0
+                ? XAddParams.xAddParams().approximateTrimming().maxLen(this.maxLen)
+                : XAddParams.xAddParams();
+    }
+
+    public static StreamTrim fromEnv(String prefix, int defaultMaxLen) {
+        return new StreamTrim(
+                AbstractSpruceService.envInt(prefix + "_MAXLEN", defaultMaxLen),
+                AbstractSpruceService.envInt(prefix + "_MAX_AGE_MS", 0)
+        );
+    }
+
+    /**
+     * XADD params for the next entry; shared unless trimming by age, where the MINID moves with the clock.
+     */
+    public XAddParams params() {
+        if (maxAgeMillis == 0) return fixed;
+        return XAddParams.xAddParams()
+                .approximateTrimming()
+                .minId(String.valueOf(System.currentTimeMillis() - maxAgeMillis));
+    }
+
+    public long getMaxLen() {
+        return maxLen;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+}
@@ -0,0 +1,103 @@
+package org.spruce.api.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallBatcherTest {
+
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    private CompletableFuture<List<String>> echo(List<Integer> requests) {
+        batches.add(List.copyOf(requests));
+        return CompletableFuture.completedFuture(requests.stream().map(i -> "r" + i).toList());
+    }
+
+    @Test
+    void fullBatchIsSentImmediately() throws Exception {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(60_000, 3, this::echo);
+
+        CompletableFuture<String> first = batcher.submit(1);
+        batcher.submit(2);
+        assertTrue(batches.isEmpty());
+        CompletableFuture<String> third = batcher.submit(3);
+
+        assertEquals(List.of(List.of(1, 2, 3)), batches);
+        assertEquals("r1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("r3", third.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void partialBatchIsSentAfterTheWindow() throws Exception {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(100, 100, this::echo);
+
+        CompletableFuture<String> first = batcher.submit(1);
+        CompletableFuture<String> second = batcher.submit(2);
+        assertTrue(batches.isEmpty());
+
+        assertEquals("r1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("r2", second.get(5, TimeUnit.SECONDS));
+        assertEquals(List.of(List.of(1, 2)), batches);
+    }
+
+    @Test
+    void windowOfAFullBatchSendsNothingMore() throws Exception {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(20, 2, this::echo);
+
+        batcher.submit(1);
+        batcher.submit(2);
+        CompletableFuture<String> next = batcher.submit(3);
+
+        assertEquals("r3", next.get(5, TimeUnit.SECONDS));
+        Thread.sleep(40);
+        assertEquals(List.of(List.of(1, 2), List.of(3)), batches);
+    }
+
+    @Test
+    void failedBatchFailsEveryCall() {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(60_000, 2,
+                requests -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+
+        CompletableFuture<String> first = batcher.submit(1);
+        CompletableFuture<String> second = batcher.submit(2);
+
+        assertFailsWith(IllegalStateException.class, first);
+        assertFailsWith(IllegalStateException.class, second);
+    }
+
+    @Test
+    void throwingSenderFailsEveryCall() {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(60_000, 2, requests -> {
+            throw new IllegalArgumentException("encoding failed");
+        });
+
+        CompletableFuture<String> first = batcher.submit(1);
+        CompletableFuture<String> second = batcher.submit(2);
+
+        assertFailsWith(IllegalArgumentException.class, first);
+        assertFailsWith(IllegalArgumentException.class, second);
+    }
+
+    @Test
+    void wrongNumberOfResultsFailsEveryCall() {
+        CallBatcher<Integer, String> batcher = new CallBatcher<>(60_000, 2,
+                requests -> CompletableFuture.completedFuture(List.of("only one")));
+
+        CompletableFuture<String> first = batcher.submit(1);
+        CompletableFuture<String> second = batcher.submit(2);
+
+        assertFailsWith(IllegalStateException.class, first);
+        assertFailsWith(IllegalStateException.class, second);
+    }
+
+    private static void assertFailsWith(Class<? extends Throwable> type, CompletableFuture<String> future) {
+        ExecutionException error = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(type, error.getCause());
+    }
+}
@@ -0,0 +1,145 @@
+package org.spruce.api.gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseNearCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private CompletableFuture<String> load(String key) {
+        return CompletableFuture.completedFuture(key + ":" + loads.incrementAndGet());
+    }
+
+    @Test
+    void cachedResultIsReturnedUntilItExpires() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(200, 16);
+
+        assertEquals("a:1", cache.get("a", this::load).get());
+        assertEquals("a:1", cache.get("a", this::load).get());
+        Thread.sleep(250);
+        assertEquals("a:2", cache.get("a", this::load).get());
+
+        ResponseNearCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+    }
+
+    @Test
+    void concurrentMissesShareOneCall() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<CompletableFuture<CompletableFuture<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return cache.get("a", key -> {
+                        loads.incrementAndGet();
+                        return pending;
+                    });
+                }, executor));
+            }
+            start.countDown();
+            for (var result : results) result.get(5, TimeUnit.SECONDS);
+            pending.complete("value");
+
+            for (var result : results) assertEquals("value", result.get().get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedCallsAreNotCached() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        CompletableFuture<String> failed = cache.get("a", key -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+
+        ExecutionException error = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertEquals("a:1", cache.get("a", this::load).get());
+    }
+
+    @Test
+    void throwingLoaderFailsTheCallWithoutCachingIt() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        CompletableFuture<String> failed = cache.get("a", key -> {
+            throw new IllegalStateException("encoding failed");
+        });
+
+        assertTrue(failed.isCompletedExceptionally());
+        assertEquals(0, cache.stats().size());
+        assertEquals("a:1", cache.get("a", this::load).get());
+    }
+
+    @Test
+    void invalidatedKeysAreLoadedAgain() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        cache.get("a", this::load).get();
+        cache.get("b", this::load).get();
+
+        cache.invalidate("a");
+        assertEquals("a:3", cache.get("a", this::load).get());
+        assertEquals("b:2", cache.get("b", this::load).get());
+
+        cache.invalidateAll();
+        assertEquals("b:4", cache.get("b", this::load).get());
+        assertEquals(3, cache.stats().invalidations());
+    }
+
+    @Test
+    void callInFlightDuringInvalidationIsNotKept() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.get("a", key -> pending);
+
+        cache.invalidate("a");
+        pending.complete("stale");
+
+        assertEquals("stale", first.get());
+        assertEquals("a:1", cache.get("a", this::load).get());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 2);
+        cache.get("a", this::load).get();
+        cache.get("b", this::load).get();
+        cache.get("a", this::load).get();
+        cache.get("c", this::load).get();
+
+        assertEquals("a:1", cache.get("a", this::load).get());
+        assertEquals("b:4", cache.get("b", this::load).get());
+        assertEquals(2, cache.stats().evictions());
+    }
+
+    @Test
+    void callersCannotCompleteTheCachedFuture() throws Exception {
+        ResponseNearCache<String, String> cache = new ResponseNearCache<>(60_000, 16);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.get("a", key -> pending);
+
+        first.cancel(false);
+        pending.complete("value");
+
+        assertEquals("value", cache.get("a", this::load).get());
+    }
+}
@@ -0,0 +1,97 @@
+package org.spruce.api.service;
+
+import redis.clients.jedis.CommandArguments;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.args.Rawable;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JedisPooled whose pipelines record their commands instead of sending them, for tests of the write path.
+ * Every synced pipeline is one batch; commands get the reply Redis would send unless failed with
+ * {@link #failCommand} or {@link #failConnection}.
+ */
+final class RecordingRedis extends JedisPooled {
+
+    private final List<List<List<String>>> batches = new CopyOnWriteArrayList<>();
+    private final Set<String> failingCommands = ConcurrentHashMap.newKeySet();
+    private volatile boolean connectionFailing;
+
+    @Override
+    public Pipeline pipelined() {
+        return new Pipeline(new RecordingConnection(), false);
+    }
+
+    /** Makes every command with this name fail with an error reply. */
+    void failCommand(String command) {
+        failingCommands.add(command);
+    }
+
+    /** Makes sending any command fail, like a lost connection. */
+    void failConnection() {
+        connectionFailing = true;
+    }
+
+    /** The synced batches, each a list of commands as name and arguments. */
+    List<List<List<String>>> batches() {
+        return batches;
+    }
+
+    /** Waits until at least count batches were synced and returns them. */
+    List<List<List<String>>> awaitBatches(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batches.size() < count) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Expected " + count + " batches, got " + batches.size());
+            }
+            Thread.sleep(1);
+        }
+        return batches;
+    }
+
+    private final class RecordingConnection extends Connection {
+        private final List<List<String>> commands = new ArrayList<>();
+        private final List<Object> replies = new ArrayList<>();
+
+        @Override
+        public void sendCommand(CommandArguments args) {
+            if (connectionFailing) throw new JedisConnectionException("Connection refused");
+
+            List<String> command = new ArrayList<>();
+            for (Rawable arg : args) command.add(new String(arg.getRaw(), StandardCharsets.UTF_8));
+            commands.add(command);
+
+            String name = command.get(0);
+            if (failingCommands.contains(name)) {
+                replies.add(new JedisDataException("ERR " + name + " failed"));
+            } else if (name.equals("XADD")) {
+                replies.add(("1-" + commands.size()).getBytes(StandardCharsets.UTF_8));
+            } else {
+                replies.add(1L);
+            }
+        }
+
+        @Override
+        public List<Object> getMany(int count) {
+            batches.add(List.copyOf(commands));
+            List<Object> result = new ArrayList<>(replies);
+            commands.clear();
+            replies.clear();
+            return result;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.spruce.api.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import redis.clients.jedis.StreamEntryID;
+import redis.clients.jedis.params.XAddParams;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamBatchWriterTest {
+
+    private final RecordingRedis redis = new RecordingRedis();
+    private final ServiceMetrics metrics = new ServiceMetrics();
+    private Thread thread;
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(5_000);
+        }
+    }
+
+    private StreamBatchWriter writer(int maxBatchSize, int capacity) {
+        return new StreamBatchWriter(redis, java.util.logging.Logger.getLogger("test"), metrics, maxBatchSize, 1_000, capacity);
+    }
+
+    private void start(StreamBatchWriter writer) {
+        thread = new Thread(writer, "stream-writer-test");
+        thread.start();
+    }
+
+    private static Map<byte[], byte[]> fields() {
+        return StreamRecord.fields("response", "ok".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> names(List<List<String>> batch) {
+        return batch.stream().map(command -> command.get(0)).toList();
+    }
+
+    private static void assertFails(CompletableFuture<Void> future) {
+        assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void acksAreMergedPerStreamAndGroupAndSentAfterWrites() throws Exception {
+        StreamBatchWriter writer = writer(16, 64);
+        writer.xack("requests", "service", new StreamEntryID(1, 1));
+        CompletableFuture<Void> added = writer.xaddAsync("responses", XAddParams.xAddParams(), fields());
+        writer.xack("requests", "service", new StreamEntryID(1, 2));
+        writer.xack("requests", "other", new StreamEntryID(1, 3));
+        CompletableFuture<Void> published = writer.publish("channel", new byte[]{1});
+        start(writer);
+
+        added.get(5, TimeUnit.SECONDS);
+        published.get(5, TimeUnit.SECONDS);
+        List<List<String>> batch = redis.awaitBatches(1).get(0);
+
+        assertEquals(List.of("XADD", "PUBLISH", "XACK", "XACK"), names(batch));
+        assertEquals(List.of("XACK", "requests", "service", "1-1", "1-2"), batch.get(2));
+        assertEquals(List.of("XACK", "requests", "other", "1-3"), batch.get(3));
+        assertEquals(3L, metrics.snapshot().get("writer.xack"));
+        assertEquals(1, redis.batches().size());
+    }
+
+    @Test
+    void deletesFollowTheirAcks() throws Exception {
+        StreamBatchWriter writer = writer(16, 64);
+        writer.xack("responses", "gateway", new StreamEntryID(2, 1), true);
+        writer.xack("responses", "gateway", new StreamEntryID(2, 2), false);
+        start(writer);
+
+        List<List<String>> batch = redis.awaitBatches(1).get(0);
+        assertEquals(List.of("XACK", "responses", "gateway", "2-1", "2-2"), batch.get(0));
+        assertEquals(List.of("XDEL", "responses", "2-1"), batch.get(1));
+        assertEquals(1L, metrics.snapshot().get("writer.xdel"));
+    }
+
+    @Test
+    void batchesAreCutAtMaxBatchSizeInQueueOrder() throws Exception {
+        StreamBatchWriter writer = writer(2, 64);
+        for (int i = 1; i <= 5; i++) writer.xack("requests", "service", new StreamEntryID(3, i));
+        start(writer);
+
+        List<List<List<String>>> batches = redis.awaitBatches(3);
+        assertEquals(List.of("XACK", "requests", "service", "3-1", "3-2"), batches.get(0).get(0));
+        assertEquals(List.of("XACK", "requests", "service", "3-3", "3-4"), batches.get(1).get(0));
+        assertEquals(List.of("XACK", "requests", "service", "3-5"), batches.get(2).get(0));
+    }
+
+    @Test
+    void listPushesExpireTheirList() throws Exception {
+        StreamBatchWriter writer = writer(16, 64);
+        CompletableFuture<Void> pushed = writer.rpush("responses:list", new byte[]{1}, 60_000);
+        start(writer);
+
+        pushed.get(5, TimeUnit.SECONDS);
+        List<List<String>> batch = redis.awaitBatches(1).get(0);
+        assertEquals(List.of("RPUSH", "PEXPIRE"), names(batch));
+        assertEquals("60000", batch.get(1).get(2));
+    }
+
+    @Test
+    void failedCommandOnlyFailsItsOwnWrite() throws Exception {
+        redis.failCommand("XADD");
+        StreamBatchWriter writer = writer(16, 64);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CompletableFuture<Void> added = writer.xaddAsync("responses", XAddParams.xAddParams(), fields());
+        writer.xadd("responses", XAddParams.xAddParams(), fields(), error::set);
+        CompletableFuture<Void> pushed = writer.rpush("responses:list", new byte[]{1}, 0);
+        start(writer);
+
+        assertFails(added);
+        pushed.get(5, TimeUnit.SECONDS);
+        redis.awaitBatches(1);
+        assertNotNull(error.get());
+        assertEquals(2L, metrics.snapshot().get("writer.failed"));
+    }
+
+    @Test
+    void failedBatchFailsEveryWriteOfTheBatch() throws Exception {
+        redis.failConnection();
+        StreamBatchWriter writer = writer(16, 64);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CompletableFuture<Void> added = writer.xaddAsync("responses", XAddParams.xAddParams(), fields());
+        CompletableFuture<Void> published = writer.publish("channel", new byte[]{1});
+        CompletableFuture<Void> pushed = writer.rpush("responses:list", new byte[]{1}, 0);
+        writer.xadd("responses", XAddParams.xAddParams(), fields(), error::set);
+        start(writer);
+
+        assertFails(added);
+        assertFails(published);
+        assertFails(pushed);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (error.get() == null && System.nanoTime() < deadline) Thread.sleep(1);
+        assertNotNull(error.get());
+        assertEquals(0, redis.batches().size());
+    }
+
+    @Test
+    void fullQueueRejectsWrites() {
+        StreamBatchWriter writer = writer(1, 2);
+        assertTrue(writer.xack("requests", "service", new StreamEntryID(4, 1)));
+        assertTrue(writer.xack("requests", "service", new StreamEntryID(4, 2)));
+        assertFalse(writer.xack("requests", "service", new StreamEntryID(4, 3)));
+
+        CompletableFuture<Void> added = writer.xaddAsync("responses", XAddParams.xAddParams(), fields());
+        assertTrue(added.isCompletedExceptionally());
+        assertEquals(2L, metrics.snapshot().get("writer.rejected"));
+    }
+}
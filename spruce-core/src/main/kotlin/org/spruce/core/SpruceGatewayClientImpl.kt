@@ -1,26 +1,36 @@
 package org.spruce.core
 
-import com.fasterxml.jackson.databind.ObjectMapper
-import com.fasterxml.jackson.module.kotlin.registerKotlinModule
 import com.google.protobuf.Empty
+import com.google.protobuf.UnsafeByteOperations
 import io.grpc.ManagedChannel
 import io.grpc.ManagedChannelBuilder
+import io.grpc.Status
+import io.grpc.stub.ClientCallStreamObserver
+import io.grpc.stub.ClientResponseObserver
 import io.grpc.stub.StreamObserver
+import org.spruce.api.codec.SpruceCodecs
 import org.spruce.api.gateway.GatewayCall
 import org.spruce.api.event.GatewayEvent
 import org.spruce.api.event.GatewayEventResolver
 import org.spruce.api.gateway.SpruceGatewayClient
 import org.spruce.proto.CallServiceRequest
 import org.spruce.proto.CallServiceResponse
+import org.spruce.proto.CallStreamRequest
+import org.spruce.proto.CallStreamResponse
 import org.spruce.proto.EmitEventRequest
 import org.spruce.proto.EventStreamRequest
 import org.spruce.proto.EventStreamResponse
 import org.spruce.proto.GatewayGrpc
+import org.spruce.proto.UpdateEventSubscriptionRequest
+import java.util.UUID
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 import java.util.function.Consumer
 import java.util.logging.Logger
 
@@ -28,16 +38,27 @@ class SpruceGatewayClientImpl(
     private val logger: Logger,
     private val host: String,
     private val port: Int,
-    private val serverId: String
+    private val serverId: String,
+    private val useCallStream: Boolean = false,
+    private val maxQueuedStreamCalls: Int = 10_000
 ): GatewayEventResolver(), SpruceGatewayClient {
 
     private lateinit var channel: ManagedChannel
     private lateinit var stub: GatewayGrpc.GatewayStub
     private val connected = AtomicBoolean(false)
     private val executor = Executors.newSingleThreadScheduledExecutor()
-    private val mapper = ObjectMapper().registerKotlinModule()
+
+    private val nextCorrelationId = AtomicLong()
+    @Volatile
+    private var callSession: CallStreamSession? = null
 
     private val eventTypeRegistry = ConcurrentHashMap<String, Class<out GatewayEvent>>()
+    @Volatile
+    private var subscriptionId: String? = null
+    private val subscriptionVersion = AtomicLong()
+    // Resume point for stream-backed events after a reconnect
+    @Volatile
+    private var lastEventId: String? = null
     private val handlers = ConcurrentHashMap<Class<out GatewayEvent>, MutableList<Consumer<GatewayEvent>>>()
 
     @Synchronized
@@ -47,6 +68,7 @@ class SpruceGatewayClientImpl(
                 channel.shutdownNow()
                 connected.set(false)
             }
+            callSession = null
             logger.info("Reconnecting to Spruce Gateway...")
             channel = ManagedChannelBuilder.forAddress(host, port)
                 .usePlaintext()
@@ -86,22 +108,49 @@ class SpruceGatewayClientImpl(
     override fun isConnected(): Boolean = connected.get()
 
     override fun <T> call(call: GatewayCall<T>): CompletableFuture<T> {
-        val payloadJson = mapper.writeValueAsString(call.payload)
+        val codec = SpruceCodecs.get(call.options.contentType)
         val request = CallServiceRequest.newBuilder()
             .setService(call.service)
             .setAction(call.action)
-            .setPayload(payloadJson)
+            .setPayloadData(UnsafeByteOperations.unsafeWrap(codec.encode(call.payload)))
+            .setContentType(codec.contentType())
+            .setCoalesce(call.options.coalesce)
+            .setCacheTtlMillis(call.options.cacheTtlMillis)
+            .addAllInvalidateOn(call.options.invalidateOn)
+            .setServerId(serverId)
             .build()
 
+        val timeoutMillis = call.options.timeoutMillis
+        val response = if (useCallStream) callSession().send(request, timeoutMillis) else callUnary(request, timeoutMillis)
+
         val future = CompletableFuture<T>()
-        stub.callService(request, object : StreamObserver<CallServiceResponse> {
+        response.whenComplete { value, error ->
+            if (error != null) {
+                future.completeExceptionally(error)
+                return@whenComplete
+            }
+
+            try {
+                // Older gateways answer with the JSON text result only
+                val result = if (value.resultData.isEmpty) value.resultBytes else value.resultData
+                val responseCodec = if (value.contentType.isEmpty()) SpruceCodecs.json() else SpruceCodecs.get(value.contentType)
+                future.complete(responseCodec.decode(result.toByteArray(), call.responseType))
+            } catch (e: Exception) {
+                future.completeExceptionally(e)
+            }
+        }
+        return future
+    }
+
+    /**
+     * A positive timeoutMillis becomes the gRPC deadline of the call, which the gateway uses as request timeout.
+     */
+    private fun callUnary(request: CallServiceRequest, timeoutMillis: Long): CompletableFuture<CallServiceResponse> {
+        val future = CompletableFuture<CallServiceResponse>()
+        val callStub = if (timeoutMillis > 0) stub.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS) else stub
+        callStub.callService(request, object : StreamObserver<CallServiceResponse> {
             override fun onNext(value: CallServiceResponse) {
-                try {
-                    val result = mapper.readValue(value.result, call.responseType)
-                    future.complete(result)
-                } catch (e: Exception) {
-                    future.completeExceptionally(e)
-                }
+                future.complete(value)
             }
 
             override fun onError(t: Throwable) {
@@ -113,11 +162,145 @@ class SpruceGatewayClientImpl(
         return future
     }
 
+    private fun callSession(): CallStreamSession {
+        callSession?.let { return it }
+        synchronized(this) {
+            return callSession ?: CallStreamSession().also { callSession = it }
+        }
+    }
+
+    /**
+     * One long-lived CallStream RPC carrying many calls tagged with correlation ids.
+     * When the stream fails, its pending calls fail and the next call opens a new session.
+     *
+     * Requests are only written while the stream is ready; until then they wait in a local queue of at most
+     * maxQueuedStreamCalls, beyond which calls fail with RESOURCE_EXHAUSTED. The gateway stops reading
+     * requests while its responses are not being consumed, so a slow peer never buffers without limit.
+     */
+    private inner class CallStreamSession {
+        private val pending = ConcurrentHashMap<Long, CompletableFuture<CallServiceResponse>>()
+        private val queued = ConcurrentLinkedQueue<CallStreamRequest>()
+        private val queuedCount = AtomicInteger()
+        // Set before the call starts, so the ready handler can run while the constructor is still running
+        private lateinit var requests: ClientCallStreamObserver<CallStreamRequest>
+
+        init {
+            stub.callStream(object : ClientResponseObserver<CallStreamRequest, CallStreamResponse> {
+                override fun beforeStart(requestStream: ClientCallStreamObserver<CallStreamRequest>) {
+                    requests = requestStream
+                    requestStream.setOnReadyHandler { drain() }
+                }
+
+                override fun onNext(value: CallStreamResponse) {
+                    val future = pending.remove(value.correlationId) ?: return
+                    if (value.errorCode != Status.Code.OK.value()) {
+                        future.completeExceptionally(
+                            Status.fromCodeValue(value.errorCode).withDescription(value.errorMessage).asRuntimeException()
+                        )
+                    } else {
+                        future.complete(value.response)
+                    }
+                }
+
+                override fun onError(t: Throwable) {
+                    close(t)
+                }
+
+                override fun onCompleted() {
+                    close(Status.UNAVAILABLE.withDescription("Call stream closed by gateway").asRuntimeException())
+                }
+            })
+        }
+
+        fun send(request: CallServiceRequest, timeoutMillis: Long): CompletableFuture<CallServiceResponse> {
+            val future = CompletableFuture<CallServiceResponse>()
+            if (queuedCount.incrementAndGet() > maxQueuedStreamCalls) {
+                queuedCount.decrementAndGet()
+                future.completeExceptionally(
+                    Status.RESOURCE_EXHAUSTED.withDescription("Too many calls queued on the call stream").asRuntimeException()
+                )
+                return future
+            }
+
+            val correlationId = nextCorrelationId.incrementAndGet()
+            pending[correlationId] = future
+            queued.add(
+                CallStreamRequest.newBuilder()
+                    .setCorrelationId(correlationId)
+                    .setCall(request)
+                    .setTimeoutMillis(timeoutMillis)
+                    .build()
+            )
+            drain()
+            return future
+        }
+
+        /**
+         * Writes queued requests while the stream is ready; called on every send and when the stream becomes ready.
+         */
+        private fun drain() {
+            try {
+                synchronized(requests) {
+                    while (requests.isReady) {
+                        val message = queued.poll() ?: break
+                        queuedCount.decrementAndGet()
+                        requests.onNext(message)
+                    }
+                }
+            } catch (e: Exception) {
+                close(e)
+            }
+        }
+
+        private fun close(error: Throwable) {
+            synchronized(this@SpruceGatewayClientImpl) {
+                if (callSession === this) callSession = null
+            }
+            logger.warning("Call stream closed: ${error.message}")
+
+            queued.clear()
+            queuedCount.set(0)
+            val failed = pending.values.toList()
+            pending.clear()
+            failed.forEach { it.completeExceptionally(error) }
+        }
+    }
+
 
     override fun registerEventType(clazz: Class<out GatewayEvent>) {
         val type = resolveEventType(clazz)
-        eventTypeRegistry[type] = clazz
+        val previous = eventTypeRegistry.put(type, clazz)
         logger.info("Registered event type: $type -> ${clazz.simpleName}")
+
+        if (previous == null) updateEventSubscription()
+    }
+
+    /**
+     * Sends the full set of registered event types to the gateway, so it starts routing a newly registered type.
+     * An update that reaches the gateway before the event stream itself is retried.
+     */
+    private fun updateEventSubscription() {
+        val id = subscriptionId ?: return
+        if (!connected.get()) return
+
+        val request = UpdateEventSubscriptionRequest.newBuilder()
+            .setSubscriptionId(id)
+            .addAllTypes(eventTypeRegistry.keys)
+            .setVersion(subscriptionVersion.incrementAndGet())
+            .build()
+
+        stub.updateEventSubscription(request, object : StreamObserver<Empty> {
+            override fun onNext(value: Empty) {}
+
+            override fun onError(t: Throwable) {
+                logger.warning("Failed to update event subscription: ${t.message}")
+                if (Status.fromThrowable(t).code == Status.Code.NOT_FOUND && subscriptionId == id && !executor.isShutdown) {
+                    executor.schedule({ updateEventSubscription() }, 1, TimeUnit.SECONDS)
+                }
+            }
+
+            override fun onCompleted() {}
+        })
     }
 
     override fun <T : GatewayEvent> on(eventClass: Class<T>, handler: Consumer<T>) {
@@ -131,9 +314,11 @@ class SpruceGatewayClientImpl(
     }
 
     override fun emitGlobal(event: GatewayEvent) {
+        val codec = SpruceCodecs.forEvent(event.javaClass)
         val request = EmitEventRequest.newBuilder()
             .setType(resolveEventType(event.javaClass))
-            .setPayload(mapper.writeValueAsString(event))
+            .setPayloadData(UnsafeByteOperations.unsafeWrap(codec.encode(event)))
+            .setContentType(codec.contentType())
             .build()
 
         try {
@@ -150,17 +335,29 @@ class SpruceGatewayClientImpl(
     }
 
     private fun startEventStream() {
+        val id = UUID.randomUUID().toString()
+        subscriptionId = id
+
+        // Only the registered event types are routed to this server
         val request = EventStreamRequest.newBuilder()
             .setServerId(serverId)
+            .setBinaryPayloads(true)
+            .setFilterTypes(true)
+            .addAllTypes(eventTypeRegistry.keys)
+            .setSubscriptionId(id)
+            .setLastEventId(lastEventId.orEmpty())
             .build()
 
         stub.eventStream(request, object : StreamObserver<EventStreamResponse> {
             override fun onNext(value: EventStreamResponse) {
+                if (value.eventId.isNotEmpty()) lastEventId = value.eventId
                 try {
                     val type = value.type
                     val clazz = eventTypeRegistry[type]
                     if (clazz != null) {
-                        val event = mapper.readValue(value.payload, clazz)
+                        val payload = if (value.payloadData.isEmpty) value.payloadBytes else value.payloadData
+                        val codec = if (value.contentType.isEmpty()) SpruceCodecs.json() else SpruceCodecs.get(value.contentType)
+                        val event = codec.decode(payload.toByteArray(), clazz)
                         dispatchEvent(event)
                     }
                 } catch (e: Exception) {
@@ -188,4 +385,4 @@ class SpruceGatewayClientImpl(
             handler.accept(event)
         }
     }
-}
\ No newline at end of file
+}
@@ -47,6 +47,8 @@ dependencies {
     implementation("com.google.protobuf:protobuf-java:3.25.2")
 
     implementation("com.fasterxml.jackson.module:jackson-module-kotlin:2.15.2")
+
+    testImplementation(kotlin("test"))
 }
 
 protobuf {
@@ -99,6 +101,17 @@ tasks {
     build {
         dependsOn(shadowJar)
     }
+
+    test {
+        useJUnitPlatform()
+    }
+
+    register<JavaExec>("benchmarkCorrelationTable") {
+        group = "verification"
+        description = "Compares CorrelationTable with the previous request correlation scheme"
+        classpath = sourceSets["test"].runtimeClasspath
+        mainClass.set("org.spruce.gateway.CorrelationTableBenchmarkKt")
+    }
 }
 
 java {
@@ -0,0 +1,173 @@
+package org.spruce.gateway
+
+import io.grpc.Status
+import org.spruce.api.service.ServiceMetrics
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Limits calls in flight per service and per calling server.
+ *
+ * A call over its server's limit fails at once with RESOURCE_EXHAUSTED. A call over its service's
+ * limit waits in a small per-service queue for up to queueTimeoutMillis when queueSize > 0, and
+ * fails at once otherwise. A freed slot is handed to the oldest waiter directly. Failing fast keeps
+ * a dead service from piling up pending requests in the gateway. Limits of 0 are disabled.
+ */
+class AdmissionController(
+    private val serviceLimit: Int,
+    private val serviceLimits: Map<String, Int>,
+    private val serverLimit: Int,
+    private val queueSize: Int,
+    private val queueTimeoutMillis: Long,
+    private val metrics: ServiceMetrics
+) {
+    private val services = ConcurrentHashMap<String, Limit>()
+    private val servers = ConcurrentHashMap<String, Limit>()
+
+    private val rejected = metrics.counter("gateway.admission.rejected")
+    private val queued = metrics.counter("gateway.admission.queued")
+    private val queueTimeouts = metrics.counter("gateway.admission.queue.timeouts")
+    private val timer = if (queueSize > 0) HashedWheelTimer(threadName = "admission-queue") else null
+
+    /** True when at least one limit is configured. */
+    val enabled: Boolean get() = serviceLimit > 0 || serviceLimits.isNotEmpty() || serverLimit > 0
+
+    /**
+     * Runs call once the call is admitted, passing a release function that must be invoked exactly
+     * when the call completes. Otherwise reports RESOURCE_EXHAUSTED to onRejected.
+     * Queued calls wait at most min(queueTimeoutMillis, timeoutMillis).
+     */
+    fun admit(
+        service: String,
+        serverId: String,
+        timeoutMillis: Long,
+        call: (release: () -> Unit) -> Unit,
+        onRejected: (Status) -> Unit
+    ) {
+        val server = if (serverLimit > 0 && serverId.isNotEmpty()) servers.computeIfAbsent(serverId) { Limit(serverLimit) } else null
+        if (server != null && !server.tryAcquire()) {
+            reject(onRejected, "Too many calls in flight for server $serverId")
+            return
+        }
+
+        val limit = serviceLimits[service] ?: serviceLimit
+        val serviceSlot = if (limit > 0) services.computeIfAbsent(service) { newServiceLimit(it, limit) } else null
+
+        val released = AtomicBoolean(false)
+        val release = {
+            if (released.compareAndSet(false, true)) {
+                serviceSlot?.release()
+                server?.release()
+            }
+        }
+
+        if (serviceSlot == null || serviceSlot.tryAcquire()) {
+            call(release)
+            return
+        }
+
+        val waiter = Waiter(call, release)
+        if (!serviceSlot.enqueue(waiter)) {
+            server?.release()
+            reject(onRejected, "Too many calls in flight for service $service")
+            return
+        }
+
+        if (waiter.admitted) return
+
+        queued.increment()
+        waiter.timeout = timer!!.newTimeout(minOf(queueTimeoutMillis, timeoutMillis), TimeUnit.MILLISECONDS) {
+            if (waiter.expire()) {
+                serviceSlot.remove(waiter)
+                server?.release()
+                queueTimeouts.increment()
+                reject(onRejected, "Timed out waiting for service $service")
+            }
+        }
+    }
+
+    fun shutdown() {
+        timer?.stop()
+    }
+
+    private fun newServiceLimit(service: String, limit: Int) = Limit(limit).also {
+        metrics.gauge("gateway.admission.service.$service.in_flight") { it.inFlight.get().toLong() }
+    }
+
+    private fun reject(onRejected: (Status) -> Unit, message: String) {
+        rejected.increment()
+        onRejected(Status.RESOURCE_EXHAUSTED.withDescription(message))
+    }
+
+    private inner class Limit(private val max: Int) {
+        val inFlight = AtomicInteger()
+        private val waiters = ArrayDeque<Waiter>()
+
+        fun tryAcquire(): Boolean {
+            while (true) {
+                val current = inFlight.get()
+                if (current >= max) return false
+                if (inFlight.compareAndSet(current, current + 1)) return true
+            }
+        }
+
+        /**
+         * Admits the waiter right away if a slot was freed meanwhile, queues it if there is room.
+         */
+        fun enqueue(waiter: Waiter): Boolean {
+            synchronized(this) {
+                if (!tryAcquire()) {
+                    if (waiters.size >= queueSize) return false
+                    waiters.addLast(waiter)
+                    return true
+                }
+            }
+            waiter.admit()
+            return true
+        }
+
+        fun remove(waiter: Waiter) {
+            synchronized(this) { waiters.remove(waiter) }
+        }
+
+        /**
+         * Hands the slot to the oldest waiter that has not timed out, or frees it.
+         */
+        fun release() {
+            while (true) {
+                val waiter = synchronized(this) {
+                    waiters.removeFirstOrNull() ?: run {
+                        inFlight.decrementAndGet()
+                        null
+                    }
+                } ?: return
+
+                if (waiter.admit()) return
+            }
+        }
+    }
+
+    private class Waiter(private val call: (release: () -> Unit) -> Unit, private val release: () -> Unit) {
+        private val state = AtomicInteger(WAITING)
+        var timeout: HashedWheelTimer.Timeout? = null
+
+        val admitted: Boolean get() = state.get() == ADMITTED
+
+        fun admit(): Boolean {
+            if (!state.compareAndSet(WAITING, ADMITTED)) return false
+            timeout?.cancel()
+            call(release)
+            return true
+        }
+
+        fun expire(): Boolean = state.compareAndSet(WAITING, EXPIRED)
+
+        companion object {
+            const val WAITING = 0
+            const val ADMITTED = 1
+            const val EXPIRED = 2
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.spruce.gateway
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Pending requests by correlation id.
+ *
+ * Ids come from a counter seeded with the start time, so ids of a restarted gateway don't collide
+ * with late responses to the previous one. They travel in stream entries as base-36 bytes, encoded
+ * and parsed without creating strings. Entries are kept in striped open-addressing tables on
+ * primitive long keys (linear probing, backward-shift deletion), so registering a call allocates
+ * nothing but its value once the tables have grown to the working set.
+ */
+class CorrelationTable<T : Any>(initialCapacity: Int = 8192, stripeCount: Int = 64) {
+
+    private val nextId = AtomicLong(System.currentTimeMillis() shl 20)
+    private val stripes: Array<Stripe>
+    private val stripeMask: Int
+
+    init {
+        var count = 1
+        while (count < stripeCount) count = count shl 1
+        stripeMask = count - 1
+        val perStripe = (initialCapacity / count).coerceAtLeast(16)
+        stripes = Array(count) { Stripe(perStripe) }
+    }
+
+    /** Number of pending entries; sums the stripes without locking. */
+    val size: Int get() = stripes.sumOf { it.size }
+
+    fun nextId(): Long = nextId.incrementAndGet()
+
+    fun put(id: Long, value: T) {
+        stripeOf(id).put(id, value)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun remove(id: Long): T? = stripeOf(id).remove(id) as T?
+
+    private fun stripeOf(id: Long) = stripes[(id and stripeMask.toLong()).toInt()]
+
+    private class Stripe(capacity: Int) {
+        private var keys: LongArray
+        private var values: Array<Any?>
+        private var mask: Int
+
+        @Volatile
+        var size = 0
+            private set
+
+        init {
+            var cap = 1
+            while (cap < capacity * 2) cap = cap shl 1
+            keys = LongArray(cap)
+            values = arrayOfNulls(cap)
+            mask = cap - 1
+        }
+
+        @Synchronized
+        fun put(id: Long, value: Any) {
+            if ((size + 1) * 2 > keys.size) resize()
+            var i = slot(id)
+            while (keys[i] != EMPTY && keys[i] != id) i = (i + 1) and mask
+            if (keys[i] == EMPTY) size++
+            keys[i] = id
+            values[i] = value
+        }
+
+        @Synchronized
+        fun remove(id: Long): Any? {
+            var i = slot(id)
+            while (true) {
+                val key = keys[i]
+                if (key == EMPTY) return null
+                if (key == id) break
+                i = (i + 1) and mask
+            }
+
+            val value = values[i]
+            delete(i)
+            size--
+            return value
+        }
+
+        /** Closes the gap at hole by moving back entries of the same probe run. */
+        private fun delete(hole: Int) {
+            var free = hole
+            var j = hole
+            while (true) {
+                j = (j + 1) and mask
+                val key = keys[j]
+                if (key == EMPTY) break
+
+                val ideal = slot(key)
+                val movable = if (j > free) ideal <= free || ideal > j else ideal <= free && ideal > j
+                if (movable) {
+                    keys[free] = key
+                    values[free] = values[j]
+                    free = j
+                }
+            }
+            keys[free] = EMPTY
+            values[free] = null
+        }
+
+        private fun resize() {
+            val oldKeys = keys
+            val oldValues = values
+            keys = LongArray(oldKeys.size * 2)
+            values = arrayOfNulls(oldKeys.size * 2)
+            mask = keys.size - 1
+            for (i in oldKeys.indices) {
+                val key = oldKeys[i]
+                if (key == EMPTY) continue
+                var j = slot(key)
+                while (keys[j] != EMPTY) j = (j + 1) and mask
+                keys[j] = key
+                values[j] = oldValues[i]
+            }
+        }
+
+        private fun slot(id: Long): Int = ((id * GOLDEN) ushr 32).toInt() and mask
+    }
+
+    companion object {
+        private const val EMPTY = 0L
+        private const val GOLDEN = -0x61c8864680b583ebL
+
+        private val DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz".toByteArray()
+
+        /** Encodes a positive id as base-36 ASCII. */
+        fun encode(id: Long): ByteArray {
+            var length = 1
+            var rest = id / 36
+            while (rest > 0) {
+                length++
+                rest /= 36
+            }
+
+            val bytes = ByteArray(length)
+            var value = id
+            for (i in length - 1 downTo 0) {
+                bytes[i] = DIGITS[(value % 36).toInt()]
+                value /= 36
+            }
+            return bytes
+        }
+
+        /** Parses base-36 ASCII, returns -1 for anything that isn't an id of this table. */
+        fun decode(bytes: ByteArray?): Long {
+            if (bytes == null || bytes.isEmpty() || bytes.size > 13) return -1
+            var value = 0L
+            for (b in bytes) {
+                val digit = when (b) {
+                    in '0'.code.toByte()..'9'.code.toByte() -> b - '0'.code.toByte()
+                    in 'a'.code.toByte()..'z'.code.toByte() -> b - 'a'.code.toByte() + 10
+                    else -> return -1
+                }
+                // Overflow can wrap to a positive value, so check before multiplying
+                if (value > (Long.MAX_VALUE - digit) / 36) return -1
+                value = value * 36 + digit
+            }
+            return value
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.spruce.gateway
+
+import io.grpc.Status
+import io.grpc.stub.ServerCallStreamObserver
+import org.spruce.api.service.ServiceMetrics
+import org.spruce.proto.EventStreamResponse
+import redis.clients.jedis.StreamEntryID
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.LongSupplier
+import java.util.logging.Logger
+import kotlin.concurrent.withLock
+
+/**
+ * What to do when a subscriber's event queue is full.
+ */
+enum class EventOverflowPolicy {
+    /** Drop the oldest queued event. */
+    DROP_OLDEST,
+
+    /** Replace a queued event of the same type, otherwise drop the oldest. */
+    CONFLATE,
+
+    /** Close the subscriber's stream with RESOURCE_EXHAUSTED; the client reconnects. */
+    DISCONNECT;
+
+    companion object {
+        fun fromEnv(): EventOverflowPolicy {
+            val value = System.getenv("GATEWAY_EVENT_OVERFLOW") ?: return DROP_OLDEST
+            return entries.firstOrNull { it.name.equals(value.trim(), ignoreCase = true) } ?: DROP_OLDEST
+        }
+    }
+}
+
+/**
+ * Decouples event delivery from the Redis listener thread.
+ *
+ * Every subscriber gets a bounded queue that is drained on a small pool only while its
+ * stream is ready (gRPC flow control), so a slow server only fills its own queue and never
+ * delays the others. Lag and drops are reported per subscriber.
+ *
+ * Replays wait up to replayWaitMillis for a full queue to drain before they are aborted.
+ */
+class EventFanOut(
+    private val capacity: Int,
+    private val overflowPolicy: EventOverflowPolicy,
+    threads: Int,
+    private val metrics: ServiceMetrics,
+    private val logger: Logger,
+    private val replayWaitMillis: Long = 5_000
+) {
+    private val threadIndex = AtomicInteger()
+    private val executor: ExecutorService = Executors.newFixedThreadPool(threads.coerceAtLeast(1)) { r ->
+        Thread(r, "event-fanout-${threadIndex.incrementAndGet()}").apply { isDaemon = true }
+    }
+
+    private val droppedEvents = metrics.counter("gateway.events.dropped")
+    private val conflatedEvents = metrics.counter("gateway.events.conflated")
+    private val disconnectedSubscribers = metrics.counter("gateway.events.disconnected")
+    private val abortedReplays = metrics.counter("gateway.events.replay.aborted")
+    private val deliveryLag = metrics.summary("gateway.events.lag.millis")
+
+    fun shutdown() {
+        executor.shutdownNow()
+        executor.awaitTermination(1, TimeUnit.SECONDS)
+    }
+
+    /**
+     * Event stream of one server with its own bounded queue.
+     * onClose is called once when the stream fails or is closed because of overflow.
+     */
+    inner class EventSubscriber(
+        val subscriptionId: String,
+        val serverId: String,
+        val observer: ServerCallStreamObserver<EventStreamResponse>,
+        val binaryPayloads: Boolean,
+        val filterTypes: Boolean,
+        types: Collection<String>,
+        private val onClose: (EventSubscriber) -> Unit
+    ) {
+        @Volatile
+        var types: Set<String> = types.toSet()
+            internal set
+        internal var version = 0L
+
+        private val queue = ArrayDeque<QueuedEvent>()
+        private val pendingLive = ArrayList<QueuedEvent>()
+        private var replaying = false
+        private val scheduled = AtomicBoolean(false)
+        private val closed = AtomicBoolean(false)
+        @Volatile
+        private var overflowed = false
+        @Volatile
+        private var replayAborted = false
+        private val dropped = LongAdder()
+
+        // Replay threads wait here for room in the queue, signalled by the drain
+        private val roomLock = ReentrantLock()
+        private val roomAvailable = roomLock.newCondition()
+        @Volatile
+        private var waitingForRoom = false
+
+        // A reconnecting client registers the same names; each subscriber only removes its own gauges
+        private val metricPrefix = "gateway.events.subscriber.$serverId.${subscriptionId.take(8)}"
+        private val gauges = mapOf(
+            "$metricPrefix.queued" to LongSupplier { synchronized(queue) { queue.size.toLong() } },
+            "$metricPrefix.lag.millis" to LongSupplier { oldestAgeMillis() },
+            "$metricPrefix.dropped" to LongSupplier { dropped.sum() }
+        )
+
+        init {
+            gauges.forEach { (name, gauge) -> metrics.gauge(name, gauge) }
+            observer.setOnReadyHandler { scheduleDrain() }
+        }
+
+        /**
+         * True if the subscriber wants events of this type.
+         */
+        fun accepts(type: String) = !filterTypes || type in types
+
+        /**
+         * Queues a live event and schedules a drain. Never blocks the caller.
+         * During a replay, live events are held back until the replay has caught up.
+         */
+        fun enqueue(type: String, response: EventStreamResponse, eventId: String? = null) {
+            enqueue(QueuedEvent(type, response, eventId, System.nanoTime()), live = true)
+        }
+
+        /**
+         * Starts a replay: live events are buffered (up to the queue capacity) until endReplay().
+         */
+        fun beginReplay() {
+            synchronized(queue) { replaying = true }
+        }
+
+        /**
+         * True while replayed events are accepted: the subscriber is open and its replay was not aborted.
+         */
+        val replayActive: Boolean get() = !closed.get() && !overflowed && !replayAborted
+
+        /**
+         * Queues a replayed event and returns false once the replay should stop.
+         *
+         * Called on a replay thread, which waits up to replayWaitMillis for the drain to make room in the
+         * queue, so a long replay to a reading subscriber is not dropped. If no room is made in time the
+         * replay is aborted: the event gets the overflow policy like a live event, and this and every later
+         * call return false without waiting, so the replay thread is released.
+         */
+        fun enqueueReplayed(type: String, response: EventStreamResponse, eventId: String): Boolean {
+            if (!replayActive) return false
+
+            var remaining = TimeUnit.MILLISECONDS.toNanos(replayWaitMillis)
+            roomLock.withLock {
+                // Set before checking the queue, so a drain in between signals
+                waitingForRoom = true
+                try {
+                    while (!closed.get() && !overflowed && synchronized(queue) { queue.size } >= capacity) {
+                        if (remaining <= 0) {
+                            replayAborted = true
+                            abortedReplays.increment()
+                            logger.warning("Server $serverId read no events for $replayWaitMillis ms, aborting its event replay")
+                            break
+                        }
+                        scheduleDrain()
+                        remaining = roomAvailable.awaitNanos(remaining)
+                    }
+                } finally {
+                    waitingForRoom = false
+                }
+            }
+            enqueue(QueuedEvent(type, response, eventId, System.nanoTime()), live = false)
+            return replayActive
+        }
+
+        /**
+         * Ends a replay and queues the buffered live events that were not already replayed.
+         */
+        fun endReplay(lastReplayedId: String?) {
+            val last = lastReplayedId?.let { StreamEntryID(it) }
+            synchronized(queue) {
+                replaying = false
+                for (event in pendingLive) {
+                    if (last == null || event.eventId == null || StreamEntryID(event.eventId) > last) offer(event)
+                }
+                pendingLive.clear()
+            }
+            scheduleDrain()
+        }
+
+        private fun enqueue(event: QueuedEvent, live: Boolean) {
+            if (closed.get() || overflowed) return
+
+            synchronized(queue) {
+                if (live && replaying) {
+                    if (pendingLive.size >= capacity) {
+                        pendingLive.removeAt(0)
+                        dropped.increment()
+                        droppedEvents.increment()
+                    }
+                    pendingLive.add(event)
+                    return
+                }
+                offer(event)
+            }
+            scheduleDrain()
+        }
+
+        /**
+         * Adds an event to the queue, applying the overflow policy. Must hold the queue lock.
+         */
+        private fun offer(event: QueuedEvent) {
+            if (overflowed) return
+            if (queue.size >= capacity) {
+                when (overflowPolicy) {
+                    EventOverflowPolicy.DROP_OLDEST -> drop()
+                    EventOverflowPolicy.CONFLATE -> {
+                        val index = queue.indexOfFirst { it.type == event.type }
+                        if (index >= 0) {
+                            queue[index] = QueuedEvent(event.type, event.response, event.eventId, queue[index].enqueuedNanos)
+                            conflatedEvents.increment()
+                            return
+                        }
+                        drop()
+                    }
+                    EventOverflowPolicy.DISCONNECT -> {
+                        overflowed = true
+                        queue.clear()
+                        return
+                    }
+                }
+            }
+            queue.addLast(event)
+        }
+
+        /**
+         * Detaches the subscriber without touching the stream (it was cancelled by the client).
+         */
+        fun cancel() {
+            if (!closed.compareAndSet(false, true)) return
+            release()
+        }
+
+        private fun drop() {
+            queue.removeFirst()
+            dropped.increment()
+            droppedEvents.increment()
+        }
+
+        private fun scheduleDrain() {
+            if (closed.get() || !scheduled.compareAndSet(false, true)) return
+            try {
+                executor.execute(::drain)
+            } catch (e: RejectedExecutionException) {
+                scheduled.set(false)
+            }
+        }
+
+        /**
+         * Sends queued events while the stream is ready. Runs on the fan-out pool, at most once at a time per subscriber.
+         */
+        private fun drain() {
+            try {
+                while (!closed.get()) {
+                    if (overflowed) {
+                        disconnectedSubscribers.increment()
+                        logger.warning("Event queue of server $serverId overflowed, closing its event stream")
+                        fail(Status.RESOURCE_EXHAUSTED.withDescription("Event queue overflow").asRuntimeException())
+                        return
+                    }
+                    if (!observer.isReady) return
+
+                    val event = synchronized(queue) { queue.removeFirstOrNull() } ?: return
+                    signalRoom()
+                    observer.onNext(event.response)
+                    deliveryLag.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - event.enqueuedNanos))
+                }
+            } catch (e: Exception) {
+                logger.warning("Failed to send event to server $serverId, removing observer: ${e.message}")
+                fail(null)
+            } finally {
+                scheduled.set(false)
+                if (!closed.get() && (overflowed || (observer.isReady && hasQueued()))) scheduleDrain()
+            }
+        }
+
+        private fun fail(error: Throwable?) {
+            if (!closed.compareAndSet(false, true)) return
+            if (error != null) {
+                try {
+                    observer.onError(error)
+                } catch (ignored: Exception) {
+                }
+            }
+            release()
+            onClose(this)
+        }
+
+        private fun release() {
+            synchronized(queue) {
+                queue.clear()
+                pendingLive.clear()
+            }
+            signalRoom()
+            gauges.forEach { (name, gauge) -> metrics.removeGauge(name, gauge) }
+        }
+
+        private fun signalRoom() {
+            if (waitingForRoom) roomLock.withLock { roomAvailable.signalAll() }
+        }
+
+        private fun hasQueued() = synchronized(queue) { queue.isNotEmpty() }
+
+        private fun oldestAgeMillis(): Long {
+            val oldest = synchronized(queue) { queue.firstOrNull() } ?: return 0
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos)
+        }
+    }
+
+    private class QueuedEvent(
+        val type: String,
+        val response: EventStreamResponse,
+        val eventId: String?,
+        val enqueuedNanos: Long
+    )
+}
@@ -0,0 +1,86 @@
+package org.spruce.gateway
+
+import org.spruce.gateway.EventFanOut.EventSubscriber
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Index of event stream subscribers by event type.
+ *
+ * Subscribers that filter by type are only registered under the types they listed;
+ * subscribers without a filter (older clients) receive every event.
+ */
+class EventRouter {
+
+    private val subscriptions = ConcurrentHashMap<String, EventSubscriber>()
+    private val byType = ConcurrentHashMap<String, MutableSet<EventSubscriber>>()
+    private val wildcard: MutableSet<EventSubscriber> = ConcurrentHashMap.newKeySet()
+
+    val size: Int get() = subscriptions.size
+
+    fun add(subscriber: EventSubscriber) {
+        subscriptions[subscriber.subscriptionId]?.let { remove(it) }
+        subscriptions[subscriber.subscriptionId] = subscriber
+
+        if (!subscriber.filterTypes) {
+            wildcard.add(subscriber)
+            return
+        }
+        synchronized(subscriber) {
+            subscriber.types.forEach { index(it, subscriber) }
+        }
+    }
+
+    fun remove(subscriber: EventSubscriber): Boolean {
+        if (!subscriptions.remove(subscriber.subscriptionId, subscriber)) return false
+
+        wildcard.remove(subscriber)
+        synchronized(subscriber) {
+            subscriber.types.forEach { unindex(it, subscriber) }
+        }
+        return true
+    }
+
+    /**
+     * Replaces the subscribed types of a subscription.
+     * Returns false if the subscription is unknown; stale versions are ignored.
+     */
+    fun update(subscriptionId: String, types: Collection<String>, version: Long): Boolean {
+        val subscriber = subscriptions[subscriptionId] ?: return false
+
+        synchronized(subscriber) {
+            if (version <= subscriber.version) return true
+
+            val newTypes = types.toSet()
+            val oldTypes = subscriber.types
+            subscriber.types = newTypes
+            subscriber.version = version
+
+            if (subscriber.filterTypes && subscriptions[subscriptionId] === subscriber) {
+                (newTypes - oldTypes).forEach { index(it, subscriber) }
+                (oldTypes - newTypes).forEach { unindex(it, subscriber) }
+            }
+        }
+        return true
+    }
+
+    /**
+     * Calls action for every subscriber interested in the event type.
+     */
+    fun forEachSubscriber(type: String, action: (EventSubscriber) -> Unit) {
+        byType[type]?.forEach(action)
+        wildcard.forEach(action)
+    }
+
+    private fun index(type: String, subscriber: EventSubscriber) {
+        byType.compute(type) { _, set ->
+            (set ?: ConcurrentHashMap.newKeySet()).apply { add(subscriber) }
+        }
+    }
+
+    private fun unindex(type: String, subscriber: EventSubscriber) {
+        byType.computeIfPresent(type) { _, set ->
+            set.remove(subscriber)
+            if (set.isEmpty()) null else set
+        }
+    }
+}
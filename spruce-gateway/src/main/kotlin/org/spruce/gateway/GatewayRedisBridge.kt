@@ -1,112 +1,529 @@
 package org.spruce.gateway
 
 import org.spruce.api.event.GatewayEventEnvelope
+import org.spruce.api.codec.SpruceCodecs
 import org.spruce.api.service.AbstractSpruceService
+import org.spruce.api.service.EventTransport
+import org.spruce.api.service.RequestRouting
+import org.spruce.api.service.ResponseFrame
+import org.spruce.api.service.ResponseTransport
 import org.spruce.api.service.SpruceServiceBase
-import redis.clients.jedis.StreamEntryID
-import redis.clients.jedis.params.XAddParams
+import org.spruce.api.service.StreamRecord
+import org.spruce.api.service.StreamTrim
+import redis.clients.jedis.BinaryJedisPubSub
+import redis.clients.jedis.Jedis
+import redis.clients.jedis.params.ScanParams
+import redis.clients.jedis.params.SetParams
 import redis.clients.jedis.params.XReadGroupParams
-import redis.clients.jedis.resps.StreamEntry
+import redis.clients.jedis.params.XReadParams
+import redis.clients.jedis.resps.StreamGroupInfo
+import redis.clients.jedis.util.SafeEncoder
 import java.util.*
-import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
 import java.util.logging.Logger
 
 class GatewayRedisBridge(
-    redisUrl: String,
+    private val redisUrl: String,
     private val gatewayId: String,
-    logger: Logger
+    logger: Logger,
+    val defaultTimeoutMillis: Long = 10_000
 ): AbstractSpruceService(
     redisUrl,
     logger
 ) {
     private val consumerName = "gateway-${System.getenv("GATEWAY_ID") ?: UUID.randomUUID().toString().take(8)}"
 
-    private val pendingResponses = ConcurrentHashMap<String, (String) -> Unit>()
+    private val pendingResponses = CorrelationTable<PendingRequest>()
     private val responseStream: String = getResponseStream(gatewayId)
+    private val responseStreams = listOf(responseStream)
+    private val requestTrim = StreamTrim.fromEnv("REQUEST_STREAM", 10_000)
+
+    /**
+     * How services reply to this gateway, from RESPONSE_TRANSPORT. The response stream is read in every
+     * mode, for responses of requests sent while the Pub/Sub subscription was down.
+     */
+    val responseTransport: ResponseTransport = ResponseTransport.fromEnv()
+    private val responseExecutor = Executors.newSingleThreadExecutor { r -> Thread(r, "response-reader").apply { isDaemon = true } }
+    @Volatile private var responseSubscriber: Jedis? = null
+    @Volatile private var responsePubSub: BinaryJedisPubSub? = null
+    @Volatile private var responsesSubscribed = false
 
     private val eventListenerExecutor = Executors.newSingleThreadExecutor()
-    private val requestTimeoutExecutor = Executors.newSingleThreadScheduledExecutor()
+    private val eventStreamExecutor = Executors.newSingleThreadExecutor { r -> Thread(r, "event-stream").apply { isDaemon = true } }
+    private val replayExecutor = executionMode.newExecutor("event-replay", 2)
+    private val eventStreamKey = SafeEncoder.encode(EVENT_STREAM)
+    private val replayLimit = envInt("GATEWAY_EVENT_REPLAY_MAX", 10_000)
+
+    /** True when events are written to the event stream and can be replayed. */
+    val replayEnabled: Boolean get() = eventTransport == EventTransport.STREAM
+    private val timeoutTimer = HashedWheelTimer(threadName = "request-timeouts", logger = logger)
+
+    private val expiredRequests = metrics.counter("gateway.requests.expired")
+    private val lateResponses = metrics.counter("gateway.responses.late")
+
+    private val heartbeatKey = heartbeatKey(gatewayId)
+    private val orphanMillis = envInt("GATEWAY_GC_ORPHAN_MS", 3_600_000).toLong()
+    private val removedStreams = metrics.counter("gateway.streams.removed")
+    private val removedGroups = metrics.counter("gateway.groups.removed")
+    @Volatile private var streamCount = 0L
+    @Volatile private var streamMemory = 0L
 
     init {
-        createGroup(getResponseStream(gatewayId), serviceGroup)
+        metrics.gauge("gateway.requests.pending") { pendingResponses.size.toLong() }
+        metrics.gauge("gateway.streams.count") { streamCount }
+        metrics.gauge("gateway.streams.memory.bytes") { streamMemory }
+        // Before the response stream exists, so other gateways never collect it
+        heartbeat()
+        createGroups()
         start()
+        scheduler.scheduleWithFixedDelay(::heartbeat, HEARTBEAT_INTERVAL_MS, HEARTBEAT_INTERVAL_MS, TimeUnit.MILLISECONDS)
+        val gcInterval = envInt("GATEWAY_GC_INTERVAL_MS", 60_000).toLong()
+        if (gcInterval > 0) {
+            scheduler.scheduleWithFixedDelay(::collectGarbage, gcInterval, gcInterval, TimeUnit.MILLISECONDS)
+        }
+        when (responseTransport) {
+            ResponseTransport.PUBSUB -> responseExecutor.submit { subscribeResponses() }
+            ResponseTransport.LIST -> responseExecutor.submit { readResponseList() }
+            ResponseTransport.STREAM -> {}
+        }
     }
 
-    override fun handleEntry(entry: StreamEntry) {
-        val fields = entry.fields
-        val requestId = fields["requestId"]
-        val response = fields["response"]
-
-        if (requestId == null || response == null) {
+    /**
+     * Completes the pending request of a response entry. Runs on the worker pool, so response
+     * callbacks use virtual threads with EXECUTION_MODE=virtual.
+     */
+    override fun handleEntry(entry: StreamRecord) {
+        val response = entry.getBytes("response")
+        if (response == null) {
             logger.warning("Malformed stream entry: missing requestId or response")
             return
         }
+        complete(entry.getBytes("requestId"), response, entry.get("contentType"), entry.get("status"))
+    }
+
+    /**
+     * Completes the pending request of a Pub/Sub or list response on the reader thread, without
+     * a hop to the worker pool; callbacks only hand the payload to gRPC.
+     */
+    private fun handleFrame(frame: ByteArray) {
+        try {
+            val response = ResponseFrame.decode(frame)
+            complete(response.requestId, response.response, response.contentType, response.status)
+        } catch (e: IllegalArgumentException) {
+            logger.warning("Malformed response frame: ${e.message}")
+        } catch (e: Exception) {
+            logger.warning("Failed to complete response: ${e.message}")
+        }
+    }
+
+    /**
+     * Requests a service rejected at its concurrency limit fail with ServiceOverloadedException.
+     */
+    private fun complete(requestIdBytes: ByteArray?, response: ByteArray, contentType: String?, status: String?) {
+        val requestId = CorrelationTable.decode(requestIdBytes)
+        if (requestId < 0) {
+            logger.warning("Malformed response: missing requestId")
+            return
+        }
 
-        val callback = pendingResponses.remove(requestId)
-        if (callback != null) {
-            callback(response)
+        val pending = pendingResponses.remove(requestId)
+        if (pending != null) {
+            pending.timeout?.cancel()
+            if (status == SpruceServiceBase.STATUS_OVERLOADED) {
+                pending.onError(ServiceOverloadedException(pending.name))
+            } else {
+                pending.callback(ServiceResponse(
+                    response,
+                    contentType ?: DEFAULT_CONTENT_TYPE,
+                    status == SpruceServiceBase.STATUS_ERROR
+                ))
+            }
         } else {
-            logger.fine("Late response for $requestId (already timed out?)")
+            lateResponses.increment()
+            logger.fine("Late response for ${String(requestIdBytes!!, Charsets.US_ASCII)} (already timed out?)")
         }
     }
 
-    override fun pollStream(): MutableList<MutableMap.MutableEntry<String, MutableList<StreamEntry>>>? =
-        streamRedis.xreadGroup(
+    override fun pollStream(): List<Map.Entry<String, List<StreamRecord>>>? =
+        readGroup(
             serviceGroup,
             consumerName,
-            XReadGroupParams.xReadGroupParams().block(5000).count(10),
-            mapOf(responseStream to StreamEntryID.UNRECEIVED_ENTRY)
+            XReadGroupParams.xReadGroupParams().block(5000).count(readCount),
+            readStreams
         )
 
     override fun shutdown() {
+        try {
+            streamRedis.del(heartbeatKey)
+        } catch (e: Exception) {
+            logger.fine("Failed to remove heartbeat: ${e.message}")
+        }
         super.shutdown()
+        responseExecutor.shutdownNow()
+        try {
+            responsePubSub?.unsubscribe()
+        } catch (e: Exception) {
+            logger.fine("Failed to unsubscribe from responses: ${e.message}")
+        }
+        responseSubscriber?.close()
         eventListenerExecutor.shutdownNow()
-        requestTimeoutExecutor.shutdownNow()
+        eventStreamExecutor.shutdownNow()
+        replayExecutor.shutdownNow()
+        timeoutTimer.stop()
     }
 
-    override fun getAckStream() = responseStream
+    override fun getConsumedStreams() = responseStreams
 
     override fun getServiceGroup() = gatewayId
 
     /** ===================== Streams ===================== */
 
+    /**
+     * Registers the callback and queues the request for the batching stream writer,
+     * so the calling gRPC thread never waits for Redis. The payload is written as raw bytes.
+     * Batch size and linger are configured with WRITE_BATCH_SIZE and WRITE_LINGER_MICROS.
+     *
+     * The request is correlated with its response by an id from the CorrelationTable and expires after
+     * timeoutMillis (usually the caller's gRPC deadline) on the wheel timer.
+     * The same absolute deadline (epoch millis) travels in the entry, so services skip requests nobody waits for.
+     * replyVia names the response transport; it is left out, and services reply on the response stream,
+     * while the Pub/Sub subscription is down.
+     */
     fun sendRequest(
-        requestId: String = UUID.randomUUID().toString(),
         service: String,
         action: String,
-        payload: String,
-        callback: (String) -> Unit,
+        payload: ByteArray,
+        contentType: String = DEFAULT_CONTENT_TYPE,
+        timeoutMillis: Long = defaultTimeoutMillis,
+        callback: (ServiceResponse) -> Unit,
         onError: (RuntimeException) -> Unit
     ) {
-        val timeoutFuture = requestTimeoutExecutor.schedule({
-            logger.warning("Request $requestId timed out after 10 seconds")
-            pendingResponses.remove(requestId) ?: return@schedule
-            onError(RequestTimeoutException(requestId))
-        }, 10, TimeUnit.SECONDS)
-
-        pendingResponses[requestId] = { response ->
-            timeoutFuture.cancel(true)
-            callback(response)
-        }
-
-        streamRedis.xadd(
-            SpruceServiceBase.REQUEST_STREAM,
-            XAddParams.xAddParams().approximateTrimming().maxLen(10000),
-            mapOf(
-                "requestId" to requestId,
-                "service" to service,
-                "action" to action,
-                "payload" to payload,
-                "gatewayId" to gatewayId
+        val deadline = System.currentTimeMillis() + timeoutMillis
+        val requestId = pendingResponses.nextId()
+        val pending = PendingRequest(requestId, timeoutMillis, callback, onError)
+        // Registered before the timeout is armed, so an early tick always finds the request to expire
+        pendingResponses.put(requestId, pending)
+        pending.timeout = timeoutTimer.newTimeout(timeoutMillis, TimeUnit.MILLISECONDS, pending)
+
+        val requestStream = when (requestRouting) {
+            RequestRouting.SHARED -> SpruceServiceBase.REQUEST_STREAM
+            else -> getRequestStream(service)
+        }
+
+        writer.xadd(
+            requestStream,
+            requestTrim.params(),
+            StreamRecord.fields(
+                "requestId", CorrelationTable.encode(requestId),
+                "service", service,
+                "action", action,
+                "payload", payload,
+                "contentType", contentType,
+                "gatewayId", gatewayId,
+                "deadline", deadline.toString(),
+                "replyVia", replyVia()
             )
-        )
+        ) { error ->
+            val failed = pendingResponses.remove(requestId) ?: return@xadd
+            failed.timeout?.cancel()
+            failed.onError(RequestFailedException(failed.name, error))
+        }
+    }
+
+    private fun replyVia(): String? = when (responseTransport) {
+        ResponseTransport.PUBSUB -> if (responsesSubscribed) responseTransport.wireName() else null
+        else -> responseTransport.wireName()
+    }
+
+    /** ===================== Responses ===================== */
+
+    /**
+     * Subscribes to the response channel on a dedicated connection and completes requests from onMessage,
+     * resubscribing after a second if the subscription fails.
+     */
+    private fun subscribeResponses() {
+        val channel = SafeEncoder.encode(responseStream)
+
+        while (!Thread.currentThread().isInterrupted) {
+            try {
+                Jedis(redisUrl).use { jedis ->
+                    responseSubscriber = jedis
+                    val pubSub = object : BinaryJedisPubSub() {
+                        override fun onMessage(channel: ByteArray?, message: ByteArray?) {
+                            if (message != null) handleFrame(message)
+                        }
+
+                        override fun onSubscribe(channel: ByteArray?, subscribedChannels: Int) {
+                            responsesSubscribed = true
+                            logger.info("Subscribed to response channel '$responseStream'")
+                        }
+
+                        override fun onUnsubscribe(channel: ByteArray?, subscribedChannels: Int) {
+                            responsesSubscribed = false
+                        }
+                    }
+                    responsePubSub = pubSub
+                    jedis.subscribe(pubSub, channel)
+                }
+                if (Thread.currentThread().isInterrupted) return
+                logger.warning("Response subscription ended unexpectedly. Will retry.")
+            } catch (e: Exception) {
+                if (Thread.currentThread().isInterrupted) return
+                logger.warning("Error in response subscriber: ${e.message}")
+            } finally {
+                responsesSubscribed = false
+            }
+            try {
+                Thread.sleep(1000)
+            } catch (ie: InterruptedException) {
+                return
+            }
+        }
+    }
+
+    /**
+     * Waits for responses with BLPOP and drains what else is queued with LPOP, completing requests in order.
+     */
+    private fun readResponseList() {
+        val key = SafeEncoder.encode(getResponseList(gatewayId))
+        logger.info("Reading responses from list '${getResponseList(gatewayId)}'...")
+
+        while (!Thread.currentThread().isInterrupted) {
+            try {
+                val first = streamRedis.blpop(1.0, key) ?: continue
+                handleFrame(first.value)
+
+                while (true) {
+                    val batch = streamRedis.lpop(key, 256) ?: break
+                    batch.forEach(::handleFrame)
+                    if (batch.size < 256) break
+                }
+            } catch (e: Exception) {
+                if (Thread.currentThread().isInterrupted) return
+                logger.warning("Error reading response list: ${e.message}")
+                try {
+                    Thread.sleep(1000)
+                } catch (ie: InterruptedException) {
+                    return
+                }
+            }
+        }
+    }
+
+    /** ===================== Garbage collection ===================== */
+
+    /**
+     * Marks this gateway alive for the garbage collection of other gateways.
+     */
+    private fun heartbeat() {
+        try {
+            streamRedis.set(heartbeatKey, consumerName, SetParams.setParams().px(HEARTBEAT_INTERVAL_MS * 3))
+        } catch (e: Exception) {
+            logger.warning("Failed to write heartbeat: ${e.message}")
+        }
+    }
+
+    /**
+     * Runs every GATEWAY_GC_INTERVAL_MS (0 disables it) on every gateway:
+     * - deletes response streams and lists of gateways without a heartbeat whose groups are orphaned
+     *   (see isOrphaned), e.g. of gateways started with a random id
+     * - destroys orphaned consumer groups on request streams, e.g. of removed services; a service whose
+     *   group is destroyed while it runs recreates it on its next read
+     * - sums the number and memory usage (MEMORY USAGE) of the remaining gateway streams and lists
+     *   into gateway.streams.count and gateway.streams.memory.bytes
+     */
+    private fun collectGarbage() {
+        var count = 0L
+        var memory = 0L
+
+        try {
+            scanKeys("${SpruceServiceBase.RESPONSE_STREAM}:*", null) { key ->
+                if (isOrphanedResponseKey(key)) {
+                    streamRedis.del(key)
+                    removedStreams.increment()
+                    logger.info("Removed orphaned response key $key")
+                } else {
+                    count++
+                    memory += streamRedis.memoryUsage(key) ?: 0
+                }
+            }
+            scanKeys("${SpruceServiceBase.REQUEST_STREAM}*", "stream") { key ->
+                removeOrphanedGroups(key)
+                count++
+                memory += streamRedis.memoryUsage(key) ?: 0
+            }
+            streamRedis.memoryUsage(EVENT_STREAM)?.let {
+                count++
+                memory += it
+            }
+
+            streamCount = count
+            streamMemory = memory
+        } catch (e: Exception) {
+            logger.warning("Garbage collection failed: ${e.message}")
+        }
+    }
+
+    private fun isOrphanedResponseKey(key: String): Boolean {
+        val owner = key.removePrefix("${SpruceServiceBase.RESPONSE_STREAM}:").removeSuffix(":list")
+        if (owner == gatewayId || streamRedis.exists(heartbeatKey(owner))) return false
+        if (key.endsWith(":list")) return true
+
+        // Gateways without heartbeats (older versions) still read their stream; a stream recreated
+        // by a late response has no groups at all
+        return streamRedis.type(key) == "stream" &&
+            streamRedis.xinfoGroups(key).all { group -> isOrphaned(key, group) }
+    }
+
+    private fun removeOrphanedGroups(stream: String) {
+        for (group in streamRedis.xinfoGroups(stream)) {
+            if (!isOrphaned(stream, group)) continue
+
+            streamRedis.xgroupDestroy(stream, group.name)
+            removedGroups.increment()
+            logger.info("Removed orphaned group ${group.name} from $stream")
+        }
+    }
+
+    /**
+     * A group is orphaned when it has consumers, all idle for GATEWAY_GC_ORPHAN_MS, nothing pending, and
+     * nothing delivered for that long. A group without consumers (just created, or pruned by
+     * removeIdleConsumers) is kept, and so is one with pending entries, which may still be reclaimed.
+     */
+    private fun isOrphaned(stream: String, group: StreamGroupInfo): Boolean {
+        if (group.consumers == 0L || group.pending > 0) return false
+        val lastDelivered = group.lastDeliveredId
+        if (lastDelivered != null && System.currentTimeMillis() - lastDelivered.time < orphanMillis) return false
+
+        val consumers = streamRedis.xinfoConsumers2(stream, group.name)
+        return consumers.isNotEmpty() && consumers.all { it.idle >= orphanMillis }
     }
 
-    /** ===================== Events via Pub/Sub ===================== */
+    private inline fun scanKeys(pattern: String, type: String?, action: (String) -> Unit) {
+        val params = ScanParams().match(pattern).count(1000)
+        var cursor = ScanParams.SCAN_POINTER_START
+        do {
+            val result = if (type == null) streamRedis.scan(cursor, params) else streamRedis.scan(cursor, params, type)
+            for (key in result.result) {
+                try {
+                    action(key)
+                } catch (e: Exception) {
+                    logger.warning("Garbage collection of $key failed: ${e.message}")
+                }
+            }
+            cursor = result.cursor
+        } while (cursor != ScanParams.SCAN_POINTER_START)
+    }
+
+    private fun heartbeatKey(id: String) = "${GATEWAY_PREFIX}heartbeat:$id"
+
+    /** ===================== Events ===================== */
 
-    fun startEventListener(onEvent: (String, String) -> Unit) {
+    /**
+     * Listens for global events on Pub/Sub and, when EVENT_TRANSPORT=stream, on the event stream.
+     * Stream events are passed with their entry id, Pub/Sub events without one.
+     */
+    fun startEventListener(onEvent: (GatewayEventEnvelope, String?) -> Unit) {
+        startPubSubListener { onEvent(it, null) }
+        if (replayEnabled) {
+            eventStreamExecutor.submit { readEventStream(onEvent) }
+        }
+    }
+
+    /**
+     * Reads events appended after the given id, in order, on the replay pool, while isActive holds and
+     * onEvent returns true. At most GATEWAY_EVENT_REPLAY_MAX entries are read per resume; a client that
+     * missed more continues with live events.
+     * onDone receives the id of the last replayed event (or null if none) once the stream is exhausted,
+     * the replay was stopped or failed, so the caller can always switch to live events.
+     */
+    fun replayEvents(
+        afterId: String,
+        isActive: () -> Boolean,
+        onEvent: (GatewayEventEnvelope, String) -> Boolean,
+        onDone: (String?) -> Unit
+    ) {
+        replayExecutor.submit {
+            var lastId: String? = null
+            var read = 0
+            try {
+                var start = "($afterId"
+                paging@ while (!Thread.currentThread().isInterrupted && isActive()) {
+                    val count = minOf(REPLAY_PAGE_SIZE, replayLimit - read)
+                    if (count <= 0) {
+                        logger.warning("Event replay after $afterId stopped after $replayLimit events")
+                        break
+                    }
+                    val entries = StreamRecord.parseEntries(
+                        streamRedis.xrange(eventStreamKey, SafeEncoder.encode(start), SafeEncoder.encode("+"), count)
+                    )
+                    for (entry in entries) {
+                        if (!isActive()) break@paging
+                        read++
+                        val envelope = toEnvelope(entry) ?: continue
+                        lastId = entry.id.toString()
+                        if (!onEvent(envelope, lastId)) break@paging
+                    }
+                    if (entries.size < count) break
+                    start = "(${entries.last().id}"
+                }
+            } catch (e: Exception) {
+                logger.warning("Event replay after $afterId failed: ${e.message}")
+            } finally {
+                onDone(lastId)
+            }
+        }
+    }
+
+    private fun readEventStream(onEvent: (GatewayEventEnvelope, String?) -> Unit) {
+        logger.info("Reading events from stream '$EVENT_STREAM'...")
+        var lastId = SafeEncoder.encode("$")
+        val params = XReadParams.xReadParams().block(5000).count(256)
+
+        while (!Thread.currentThread().isInterrupted) {
+            try {
+                val reply = streamRedis.xread(params, java.util.Map.entry(eventStreamKey, lastId))
+                StreamRecord.parseReadReply(reply)?.forEach { stream ->
+                    for (entry in stream.value) {
+                        lastId = SafeEncoder.encode(entry.id.toString())
+                        val envelope = toEnvelope(entry) ?: continue
+                        try {
+                            onEvent(envelope, entry.id.toString())
+                        } catch (e: Exception) {
+                            logger.warning("Failed to handle event ${entry.id}: ${e.message}")
+                        }
+                    }
+                }
+            } catch (e: Exception) {
+                if (Thread.currentThread().isInterrupted) return
+                logger.warning("Error reading event stream: ${e.message}")
+                try {
+                    Thread.sleep(1000)
+                } catch (ie: InterruptedException) {
+                    return
+                }
+            }
+        }
+    }
+
+    private fun toEnvelope(entry: StreamRecord): GatewayEventEnvelope? {
+        val type = entry.get("type")
+        val payload = entry.getBytes("payload")
+        if (type == null || payload == null) {
+            logger.warning("Malformed event entry ${entry.id}: missing type or payload")
+            return null
+        }
+
+        val contentType = entry.get("contentType") ?: SpruceCodecs.JSON
+        return if (contentType == SpruceCodecs.JSON) {
+            GatewayEventEnvelope(type, String(payload, Charsets.UTF_8))
+        } else {
+            GatewayEventEnvelope(type, null, contentType, payload)
+        }
+    }
+
+    private fun startPubSubListener(onEvent: (GatewayEventEnvelope) -> Unit) {
         fun subscribe() {
             if (Thread.currentThread().isInterrupted) return
 
@@ -119,7 +536,7 @@ class GatewayRedisBridge(
                             if (message != null) {
                                 try {
                                     val envelope = mapper.readValue(message, GatewayEventEnvelope::class.java)
-                                    onEvent(envelope.type, envelope.payload)
+                                    onEvent(envelope)
                                 } catch (e: Exception) {
                                     logger.warning("Failed to handle event message: ${e.message}")
                                 }
@@ -136,10 +553,10 @@ class GatewayRedisBridge(
                     }, SpruceServiceBase.EVENT_CHANNEL)
 
                     logger.warning("Redis Pub/Sub subscription ended unexpectedly. Will retry.")
-                    requestTimeoutExecutor.schedule({ subscribe() }, 1, TimeUnit.SECONDS)
+                    scheduler.schedule({ subscribe() }, 1, TimeUnit.SECONDS)
                 } catch (e: Exception) {
                     logger.warning("Error in Redis Pub/Sub subscriber: ${e.message}")
-                    requestTimeoutExecutor.schedule({ subscribe() }, 1, TimeUnit.SECONDS)
+                    scheduler.schedule({ subscribe() }, 1, TimeUnit.SECONDS)
                 }
             }
         }
@@ -147,5 +564,44 @@ class GatewayRedisBridge(
         subscribe()
     }
 
+    /**
+     * Raw service response, passed through to gRPC without decoding.
+     * failed marks encoded errors (ERROR status), which are passed through but never cached.
+     */
+    class ServiceResponse(val payload: ByteArray, val contentType: String, val failed: Boolean = false)
+
+    /**
+     * A request waiting for its response; also the task of its own timeout, so a call allocates
+     * no timeout closure.
+     */
+    private inner class PendingRequest(
+        val id: Long,
+        val timeoutMillis: Long,
+        val callback: (ServiceResponse) -> Unit,
+        val onError: (RuntimeException) -> Unit
+    ) : () -> Unit {
+        /** Null until armed; a response arriving before that leaves the timeout to find nothing. */
+        @Volatile var timeout: HashedWheelTimer.Timeout? = null
+
+        /** Id as written to the stream, for messages. */
+        val name: String get() = String(CorrelationTable.encode(id), Charsets.US_ASCII)
+
+        override fun invoke() {
+            val expired = pendingResponses.remove(id) ?: return
+            expiredRequests.increment()
+            logger.warning("Request $name timed out after $timeoutMillis ms")
+            expired.onError(RequestTimeoutException(name))
+        }
+    }
+
+    companion object {
+        private const val HEARTBEAT_INTERVAL_MS = 10_000L
+        private const val REPLAY_PAGE_SIZE = 512
+    }
+
     class RequestTimeoutException(requestId: String) : RuntimeException("Request timed out: $requestId")
+
+    class RequestFailedException(requestId: String, cause: Exception) : RuntimeException("Request failed: $requestId", cause)
+
+    class ServiceOverloadedException(requestId: String) : RuntimeException("Service overloaded: $requestId")
 }
@@ -15,9 +15,27 @@ object GatewayServer {
         val id = System.getenv("GATEWAY_ID") ?: "default"
         val port = System.getenv("GATEWAY_PORT")?.toIntOrNull() ?: 6565
         val redisUrl = System.getenv("REDIS_URL") ?: "redis://localhost:6379"
+        val requestTimeout = System.getenv("GATEWAY_REQUEST_TIMEOUT_MS")?.toLongOrNull() ?: 10_000L
+        val eventQueueCapacity = System.getenv("GATEWAY_EVENT_QUEUE_CAPACITY")?.toIntOrNull() ?: 1024
+        val eventFanOutThreads = System.getenv("GATEWAY_EVENT_FANOUT_THREADS")?.toIntOrNull() ?: 4
+        val responseCacheSize = System.getenv("GATEWAY_CACHE_MAX_ENTRIES")?.toIntOrNull() ?: 10_000
+        val serviceInFlightLimit = System.getenv("GATEWAY_MAX_IN_FLIGHT_PER_SERVICE")?.toIntOrNull() ?: 0
+        val serverInFlightLimit = System.getenv("GATEWAY_MAX_IN_FLIGHT_PER_SERVER")?.toIntOrNull() ?: 0
+        val admissionQueueSize = System.getenv("GATEWAY_ADMISSION_QUEUE_SIZE")?.toIntOrNull() ?: 0
+        val admissionQueueTimeout = System.getenv("GATEWAY_ADMISSION_QUEUE_TIMEOUT_MS")?.toLongOrNull() ?: 100L
+        val callStreamWindow = System.getenv("GATEWAY_CALL_STREAM_WINDOW")?.toIntOrNull() ?: 1024
 
-        val redis = GatewayRedisBridge(redisUrl, id, logger)
-        val service = GatewayServiceImpl(redis)
+        val redis = GatewayRedisBridge(redisUrl, id, logger, requestTimeout)
+        val eventFanOut = EventFanOut(eventQueueCapacity, EventOverflowPolicy.fromEnv(), eventFanOutThreads, redis.metrics, logger)
+        val admission = AdmissionController(
+            serviceInFlightLimit,
+            parseServiceLimits(System.getenv("GATEWAY_SERVICE_LIMITS")),
+            serverInFlightLimit,
+            admissionQueueSize,
+            admissionQueueTimeout,
+            redis.metrics
+        )
+        val service = GatewayServiceImpl(redis, eventFanOut, responseCacheSize, admission, callStreamWindow)
 
         val server: Server = ServerBuilder.forPort(port)
             .addService(service)
@@ -28,13 +46,15 @@ object GatewayServer {
         logger.info("SpruceGateway started successfully!")
 
         // Start Redis listeners
-        redis.startEventListener { eventType, payload ->
-            service.broadcastEvent(eventType, payload)
+        redis.startEventListener { envelope, eventId ->
+            service.broadcastEvent(envelope, eventId)
         }
 
         Runtime.getRuntime().addShutdownHook(Thread {
             logger.info("Shutdown requested. Closing resources...")
             redis.shutdown()
+            eventFanOut.shutdown()
+            admission.shutdown()
             server.shutdown()
             server.awaitTermination(5, TimeUnit.SECONDS)
             logger.info("SpruceGateway stopped.")
@@ -42,4 +62,16 @@ object GatewayServer {
 
         server.awaitTermination()
     }
+
+    /**
+     * Parses per-service in-flight limits, e.g. "friends=200,stats=50".
+     */
+    private fun parseServiceLimits(value: String?): Map<String, Int> =
+        value.orEmpty()
+            .split(',')
+            .mapNotNull { part ->
+                val (name, limit) = part.split('=', limit = 2).takeIf { it.size == 2 } ?: return@mapNotNull null
+                limit.trim().toIntOrNull()?.let { name.trim() to it }
+            }
+            .toMap()
 }
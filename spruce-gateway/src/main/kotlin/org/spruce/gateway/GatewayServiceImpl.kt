@@ -1,26 +1,46 @@
 package org.spruce.gateway
 
+import com.google.protobuf.ByteString
 import com.google.protobuf.Empty
+import com.google.protobuf.UnsafeByteOperations
+import io.grpc.Context
+import io.grpc.Status
 import io.grpc.stub.ServerCallStreamObserver
 import io.grpc.stub.StreamObserver
+import org.spruce.api.codec.SpruceCodecs
+import org.spruce.api.event.GatewayEventEnvelope
+import org.spruce.api.service.AbstractSpruceService
+import org.spruce.gateway.EventFanOut.EventSubscriber
 import org.spruce.proto.*
 import java.util.*
-import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.Logger
 
 class GatewayServiceImpl(
-    private val redis: GatewayRedisBridge
+    private val redis: GatewayRedisBridge,
+    private val eventFanOut: EventFanOut,
+    responseCacheSize: Int = 10_000,
+    private val admission: AdmissionController? = null,
+    private val callStreamWindow: Int = 1024
 ) : GatewayGrpc.GatewayImplBase() {
 
     private val logger = Logger.getLogger("GatewayService")
-    private val eventStreams = CopyOnWriteArrayList<ServerCallStreamObserver<EventStreamResponse>>()
+    private val eventRouter = EventRouter()
+    private val singleFlight = SingleFlight<CallKey, CallServiceResponse, Status>(redis.metrics.counter("gateway.calls.coalesced"), ::toStatus)
+    private val responseCache = if (responseCacheSize > 0) ResponseCache<CallKey, CallServiceResponse>(responseCacheSize, redis.metrics) else null
 
     override fun emitEvent(
         request: EmitEventRequest,
         responseObserver: StreamObserver<Empty>
     ) {
-        redis.emit(request.type, request.payload)
+        val contentType = request.contentType.ifEmpty { SpruceCodecs.JSON }
+        when {
+            request.payloadData.isEmpty -> redis.emit(request.type, request.payload)
+            contentType == SpruceCodecs.JSON -> redis.emit(request.type, request.payloadData.toStringUtf8())
+            else -> redis.emit(request.type, contentType, request.payloadData.toByteArray())
+        }
         responseObserver.onNext(Empty.getDefaultInstance())
         responseObserver.onCompleted()
     }
@@ -29,7 +49,13 @@ class GatewayServiceImpl(
         request: CallServiceRequest,
         responseObserver: StreamObserver<CallServiceResponse>
     ) {
-        val requestId = UUID.randomUUID().toString()
+        val deadline = Context.current().deadline
+        if (deadline != null && deadline.isExpired) {
+            responseObserver.onError(Status.DEADLINE_EXCEEDED.asRuntimeException())
+            return
+        }
+
+        val timeoutMillis = deadline?.timeRemaining(TimeUnit.MILLISECONDS) ?: redis.defaultTimeoutMillis
         val serverObserver = responseObserver as? ServerCallStreamObserver<CallServiceResponse>
         val cancelled = AtomicBoolean(false)
 
@@ -37,48 +63,338 @@ class GatewayServiceImpl(
             cancelled.set(true)
         }
 
-        redis.sendRequest(requestId, request.service, request.action, request.payload, { response ->
+        dispatch(request, timeoutMillis, { response ->
             if (!cancelled.get()) {
-                responseObserver.onNext(
-                    CallServiceResponse.newBuilder().setResult(response).build()
-                )
+                responseObserver.onNext(response)
                 responseObserver.onCompleted()
             }
-        }, { error ->
+        }, { status ->
             if (!cancelled.get()) {
-                responseObserver.onError(error)
+                responseObserver.onError(status.asRuntimeException())
+            }
+        })
+    }
+
+    /**
+     * Multiplexes many calls over one bidirectional stream.
+     * Each request carries a correlation id that is echoed in its response; responses are
+     * sent in completion order. The stream completes once the client half-closes and every
+     * in-flight call has been answered.
+     *
+     * At most callStreamWindow calls per stream are read but not yet answered: a new request is only
+     * read after a response was written while the stream was ready, otherwise once it becomes ready again.
+     * Responses the client does not consume hold back its requests instead of piling up here.
+     */
+    override fun callStream(
+        responseObserver: StreamObserver<CallStreamResponse>
+    ): StreamObserver<CallStreamRequest> {
+        val serverObserver = responseObserver as ServerCallStreamObserver<CallStreamResponse>
+        val cancelled = AtomicBoolean(false)
+        val halfClosed = AtomicBoolean(false)
+        val inFlight = AtomicInteger(0)
+        // Requests owed to the client for responses written while the stream was not ready
+        val owed = AtomicInteger(0)
+
+        serverObserver.setOnCancelHandler {
+            cancelled.set(true)
+        }
+
+        fun requestOwed() {
+            synchronized(serverObserver) {
+                val count = owed.getAndSet(0)
+                if (count > 0 && !cancelled.get()) serverObserver.request(count)
+            }
+        }
+
+        serverObserver.disableAutoRequest()
+        serverObserver.setOnReadyHandler { requestOwed() }
+        serverObserver.request(callStreamWindow)
+
+        fun complete() {
+            if (halfClosed.get() && inFlight.get() == 0 && !cancelled.get()) {
+                synchronized(serverObserver) {
+                    if (cancelled.compareAndSet(false, true)) serverObserver.onCompleted()
+                }
+            }
+        }
+
+        fun send(response: CallStreamResponse) {
+            if (!cancelled.get()) {
+                synchronized(serverObserver) {
+                    try {
+                        if (!cancelled.get()) serverObserver.onNext(response)
+                    } catch (e: Exception) {
+                        logger.fine("Failed to send call stream response: ${e.message}")
+                    }
+                }
+            }
+            owed.incrementAndGet()
+            // Checked after counting, so a ready signal in between is not missed
+            if (serverObserver.isReady) requestOwed()
+            inFlight.decrementAndGet()
+            complete()
+        }
+
+        return object : StreamObserver<CallStreamRequest> {
+            override fun onNext(value: CallStreamRequest) {
+                val correlationId = value.correlationId
+                val timeoutMillis = if (value.timeoutMillis > 0) value.timeoutMillis else redis.defaultTimeoutMillis
+                inFlight.incrementAndGet()
+
+                dispatch(value.call, timeoutMillis, { response ->
+                    send(
+                        CallStreamResponse.newBuilder()
+                            .setCorrelationId(correlationId)
+                            .setResponse(response)
+                            .build()
+                    )
+                }, { status ->
+                    send(
+                        CallStreamResponse.newBuilder()
+                            .setCorrelationId(correlationId)
+                            .setErrorCode(status.code.value())
+                            .setErrorMessage(status.description ?: status.code.name)
+                            .build()
+                    )
+                })
+            }
+
+            override fun onError(t: Throwable) {
+                cancelled.set(true)
+            }
+
+            override fun onCompleted() {
+                halfClosed.set(true)
+                complete()
+            }
+        }
+    }
+
+    /**
+     * Sends a single call to its service and reports either the response or a gRPC status.
+     * Calls with a cache TTL are answered from the response cache when possible; only successful
+     * responses are cached, encoded errors (ERROR status) are passed through.
+     * Calls marked coalesce share one in-flight request with identical concurrent calls;
+     * the shared request uses the timeout of the call that started it.
+     */
+    private fun dispatch(
+        request: CallServiceRequest,
+        timeoutMillis: Long,
+        onResponse: (CallServiceResponse) -> Unit,
+        onError: (Status) -> Unit
+    ) {
+        val cache = responseCache?.takeIf { request.cacheTtlMillis > 0 }
+        if (!request.coalesce && cache == null) {
+            send(request, timeoutMillis, onResponse, onError)
+            return
+        }
+
+        val key = CallKey(request.service, request.action, request.contentType, isBinary(request), payloadOf(request))
+        var fetch: ((CallServiceResponse) -> Unit, (Status) -> Unit) -> Unit = { onResult, onFailure ->
+            send(request, timeoutMillis, onResult, onFailure)
+        }
+
+        if (cache != null) {
+            cache.get(key)?.let {
+                onResponse(it)
+                return
+            }
+
+            val invalidateOn = request.invalidateOnList
+            val epoch = cache.epoch(invalidateOn)
+            fetch = { onResult, onFailure ->
+                send(request, timeoutMillis, { response ->
+                    cache.put(key, response, request.cacheTtlMillis, invalidateOn, epoch)
+                    onResult(response)
+                }, onFailure, onResult)
             }
+        }
+
+        if (request.coalesce) {
+            singleFlight.execute(key, onResponse, onError, fetch)
+        } else {
+            fetch(onResponse, onError)
+        }
+    }
+
+    /**
+     * Sends a call to its service once the admission controller lets it through.
+     * The admission slot is held until the response, error or timeout; time spent in the
+     * admission queue is taken from the call's timeout.
+     * Encoded errors go to onErrorResponse when given, otherwise to onResponse.
+     */
+    private fun send(
+        request: CallServiceRequest,
+        timeoutMillis: Long,
+        onResponse: (CallServiceResponse) -> Unit,
+        onError: (Status) -> Unit,
+        onErrorResponse: ((CallServiceResponse) -> Unit)? = null
+    ) {
+        if (admission == null || !admission.enabled) {
+            sendAdmitted(request, timeoutMillis, onResponse, onError, onErrorResponse)
+            return
+        }
+
+        val started = System.nanoTime()
+        admission.admit(request.service, request.serverId, timeoutMillis, { release ->
+            val remaining = timeoutMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+            sendAdmitted(request, remaining, { response ->
+                release()
+                onResponse(response)
+            }, { status ->
+                release()
+                onError(status)
+            }, onErrorResponse?.let { handler ->
+                { response ->
+                    release()
+                    handler(response)
+                }
+            })
+        }, onError)
+    }
+
+    /**
+     * Payloads are passed through as bytes: a call sent with payloadData or a content type
+     * is answered with resultData, a text call with result.
+     */
+    private fun sendAdmitted(
+        request: CallServiceRequest,
+        timeoutMillis: Long,
+        onResponse: (CallServiceResponse) -> Unit,
+        onError: (Status) -> Unit,
+        onErrorResponse: ((CallServiceResponse) -> Unit)?
+    ) {
+        val binary = isBinary(request)
+        val payload = payloadOf(request)
+        val contentType = request.contentType.ifEmpty { AbstractSpruceService.DEFAULT_CONTENT_TYPE }
+
+        redis.sendRequest(request.service, request.action, payload.toByteArray(), contentType, timeoutMillis, { response ->
+            val data = UnsafeByteOperations.unsafeWrap(response.payload)
+            val builder = CallServiceResponse.newBuilder()
+            if (binary) {
+                builder.setResultData(data).setContentType(response.contentType)
+            } else {
+                builder.setResultBytes(data)
+            }
+            if (response.failed && onErrorResponse != null) {
+                onErrorResponse(builder.build())
+            } else {
+                onResponse(builder.build())
+            }
+        }, { error ->
+            onError(toStatus(error))
         })
     }
 
+    private fun isBinary(request: CallServiceRequest) = !request.payloadData.isEmpty || request.contentType.isNotEmpty()
+
+    private fun payloadOf(request: CallServiceRequest): ByteString =
+        if (request.payloadData.isEmpty) request.payloadBytes else request.payloadData
+
+    private data class CallKey(
+        val service: String,
+        val action: String,
+        val contentType: String,
+        val binary: Boolean,
+        val payload: ByteString
+    )
+
+    private fun toStatus(error: Throwable): Status = when (error) {
+        is GatewayRedisBridge.RequestTimeoutException -> Status.DEADLINE_EXCEEDED.withDescription(error.message)
+        is GatewayRedisBridge.RequestFailedException -> Status.UNAVAILABLE.withDescription(error.message).withCause(error.cause)
+        is GatewayRedisBridge.ServiceOverloadedException -> Status.RESOURCE_EXHAUSTED.withDescription(error.message)
+        else -> Status.fromThrowable(error)
+    }
+
     override fun eventStream(
         request: EventStreamRequest,
         responseObserver: StreamObserver<EventStreamResponse>
     ) {
         val serverObserver = responseObserver as ServerCallStreamObserver<EventStreamResponse>
-        eventStreams.add(serverObserver)
-        logger.info("Client subscribed to event stream (serverId=${request.serverId}), total=${eventStreams.size}")
+        val subscriber = eventFanOut.EventSubscriber(
+            request.subscriptionId.ifEmpty { UUID.randomUUID().toString() },
+            request.serverId,
+            serverObserver,
+            request.binaryPayloads,
+            request.filterTypes,
+            request.typesList
+        ) { eventRouter.remove(it) }
+
+        val replay = request.lastEventId.isNotEmpty() && redis.replayEnabled
+        if (replay) subscriber.beginReplay()
+        eventRouter.add(subscriber)
+        logger.info("Client subscribed to event stream (serverId=${request.serverId}, types=${describeTypes(subscriber)}), total=${eventRouter.size}")
+
+        if (replay) {
+            redis.replayEvents(request.lastEventId, { subscriber.replayActive }, { envelope, eventId ->
+                val response = if (subscriber.accepts(envelope.type)) {
+                    eventResponse(envelope, eventId, subscriber.binaryPayloads)
+                } else null
+                response?.let { subscriber.enqueueReplayed(envelope.type, it, eventId) } ?: true
+            }, { lastId ->
+                subscriber.endReplay(lastId)
+                logger.info("Replayed events after ${request.lastEventId} to server ${request.serverId} (last=$lastId)")
+            })
+        }
 
         serverObserver.setOnCancelHandler {
-            eventStreams.remove(serverObserver)
-            logger.info("Client disconnected from event stream (serverId=${request.serverId}), remaining=${eventStreams.size}")
+            subscriber.cancel()
+            eventRouter.remove(subscriber)
+            logger.info("Client disconnected from event stream (serverId=${request.serverId}), remaining=${eventRouter.size}")
         }
     }
 
-    fun broadcastEvent(type: String, payload: String) {
-        val response = EventStreamResponse.newBuilder()
-            .setType(type)
-            .setPayload(payload)
-            .build()
-
-        eventStreams.removeIf { observer ->
-            try {
-                observer.onNext(response)
-                false
-            } catch (e: Exception) {
-                logger.warning("Failed to send event, removing observer: ${e.message}")
-                true
-            }
+    override fun updateEventSubscription(
+        request: UpdateEventSubscriptionRequest,
+        responseObserver: StreamObserver<Empty>
+    ) {
+        if (!eventRouter.update(request.subscriptionId, request.typesList, request.version)) {
+            responseObserver.onError(
+                Status.NOT_FOUND.withDescription("Unknown event subscription: ${request.subscriptionId}").asRuntimeException()
+            )
+            return
+        }
+        responseObserver.onNext(Empty.getDefaultInstance())
+        responseObserver.onCompleted()
+    }
+
+    private fun describeTypes(subscriber: EventSubscriber) =
+        if (subscriber.filterTypes) subscriber.types.toString() else "*"
+
+    /**
+     * Queues an event for the subscribers of its type, as text or as payloadData depending on what they asked for.
+     * Each variant is built at most once per event. Events encoded with a binary codec are only
+     * sent to subscribers that accept payloadData. Delivery happens on the fan-out pool.
+     * Stream-backed events carry their eventId so clients can resume after it.
+     * Cached responses that declared the event type in invalidateOn are dropped first.
+     */
+    fun broadcastEvent(envelope: GatewayEventEnvelope, eventId: String? = null) {
+        val type = envelope.type
+        responseCache?.invalidate(type)
+
+        val textResponse by lazy(LazyThreadSafetyMode.NONE) { eventResponse(envelope, eventId, false) }
+        val binaryResponse by lazy(LazyThreadSafetyMode.NONE) { eventResponse(envelope, eventId, true) }
+
+        eventRouter.forEachSubscriber(type) { subscriber ->
+            val response = (if (subscriber.binaryPayloads) binaryResponse else textResponse) ?: return@forEachSubscriber
+            subscriber.enqueue(type, response, eventId)
+        }
+    }
+
+    /**
+     * Builds the event message for a subscriber, or null for a binary-codec event and a text-only subscriber.
+     */
+    private fun eventResponse(envelope: GatewayEventEnvelope, eventId: String?, binary: Boolean): EventStreamResponse? {
+        val builder = EventStreamResponse.newBuilder().setType(envelope.type)
+        if (eventId != null) builder.setEventId(eventId)
+
+        if (binary) {
+            builder
+                .setPayloadData(envelope.data?.let { UnsafeByteOperations.unsafeWrap(it) } ?: ByteString.copyFromUtf8(envelope.payload))
+                .setContentType(envelope.contentType ?: AbstractSpruceService.DEFAULT_CONTENT_TYPE)
+        } else {
+            builder.setPayload(envelope.payload ?: return null)
         }
+        return builder.build()
     }
 }
@@ -0,0 +1,188 @@
+package org.spruce.gateway
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Hashed wheel timer for short-lived request timeouts.
+ *
+ * Scheduling and cancelling are O(1) and never touch a shared delay queue: new and
+ * cancelled timeouts are handed to a single worker thread through lock-free queues,
+ * and the worker expires one bucket per tick. Timeouts fire with tick precision.
+ */
+class HashedWheelTimer(
+    tickDuration: Long = 10,
+    unit: TimeUnit = TimeUnit.MILLISECONDS,
+    wheelSize: Int = 512,
+    threadName: String = "wheel-timer",
+    private val logger: Logger = Logger.getLogger("HashedWheelTimer")
+) {
+    private val tickNanos = unit.toNanos(tickDuration).coerceAtLeast(1)
+    private val wheel: Array<Bucket>
+    private val mask: Int
+
+    private val pendingTimeouts = ConcurrentLinkedQueue<Timeout>()
+    private val cancelledTimeouts = ConcurrentLinkedQueue<Timeout>()
+
+    private val startNanos = System.nanoTime()
+    private var tick = 0L
+
+    @Volatile
+    private var running = true
+    private val worker = Thread(::run, threadName).apply { isDaemon = true }
+
+    init {
+        var size = 1
+        while (size < wheelSize) size = size shl 1
+        wheel = Array(size) { Bucket() }
+        mask = size - 1
+        worker.start()
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     * The task runs on the timer thread and must not block.
+     */
+    fun newTimeout(delay: Long, unit: TimeUnit, task: () -> Unit): Timeout {
+        val deadline = System.nanoTime() - startNanos + unit.toNanos(delay).coerceAtLeast(0)
+        val timeout = Timeout(deadline, task)
+        pendingTimeouts.add(timeout)
+        return timeout
+    }
+
+    fun stop() {
+        running = false
+        worker.interrupt()
+    }
+
+    private fun run() {
+        while (running) {
+            val deadline = (tick + 1) * tickNanos
+            val sleepNanos = deadline - (System.nanoTime() - startNanos)
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos)
+                } catch (e: InterruptedException) {
+                    if (!running) return
+                }
+                continue
+            }
+
+            removeCancelled()
+            transferPending()
+            wheel[(tick and mask.toLong()).toInt()].expire()
+            tick++
+        }
+    }
+
+    private fun removeCancelled() {
+        while (true) {
+            val timeout = cancelledTimeouts.poll() ?: return
+            timeout.bucket?.remove(timeout)
+        }
+    }
+
+    private fun transferPending() {
+        // Bounded so that a burst of registrations cannot stall the tick
+        repeat(100_000) {
+            val timeout = pendingTimeouts.poll() ?: return
+            if (timeout.isCancelled) return@repeat
+
+            val expectedTick = timeout.deadline / tickNanos
+            timeout.remainingRounds = (expectedTick - tick) / wheel.size
+            val targetTick = maxOf(expectedTick, tick)
+            wheel[(targetTick and mask.toLong()).toInt()].add(timeout)
+        }
+    }
+
+    inner class Timeout internal constructor(
+        internal val deadline: Long,
+        private val task: () -> Unit
+    ) {
+        private val state = AtomicInteger(STATE_INIT)
+
+        internal var remainingRounds = 0L
+        internal var bucket: Bucket? = null
+        internal var next: Timeout? = null
+        internal var prev: Timeout? = null
+
+        val isCancelled: Boolean get() = state.get() == STATE_CANCELLED
+        val isExpired: Boolean get() = state.get() == STATE_EXPIRED
+
+        /**
+         * Cancels the timeout. Returns false if it already fired or was cancelled.
+         */
+        fun cancel(): Boolean {
+            if (!state.compareAndSet(STATE_INIT, STATE_CANCELLED)) return false
+            cancelledTimeouts.add(this)
+            return true
+        }
+
+        internal fun expire() {
+            if (!state.compareAndSet(STATE_INIT, STATE_EXPIRED)) return
+            try {
+                task()
+            } catch (e: Throwable) {
+                logger.log(Level.WARNING, "Timeout task failed", e)
+            }
+        }
+    }
+
+    /**
+     * Doubly-linked list of timeouts, only touched by the worker thread.
+     */
+    inner class Bucket {
+        private var head: Timeout? = null
+        private var tail: Timeout? = null
+
+        internal fun add(timeout: Timeout) {
+            timeout.bucket = this
+            if (head == null) {
+                head = timeout
+                tail = timeout
+            } else {
+                tail!!.next = timeout
+                timeout.prev = tail
+                tail = timeout
+            }
+        }
+
+        internal fun expire() {
+            var timeout = head
+            while (timeout != null) {
+                var next = timeout.next
+                if (timeout.remainingRounds <= 0) {
+                    next = remove(timeout)
+                    timeout.expire()
+                } else if (timeout.isCancelled) {
+                    next = remove(timeout)
+                } else {
+                    timeout.remainingRounds--
+                }
+                timeout = next
+            }
+        }
+
+        internal fun remove(timeout: Timeout): Timeout? {
+            if (timeout.bucket !== this) return timeout.next
+            val next = timeout.next
+            timeout.prev?.next = next
+            next?.prev = timeout.prev
+            if (timeout === head) head = next
+            if (timeout === tail) tail = timeout.prev
+            timeout.prev = null
+            timeout.next = null
+            timeout.bucket = null
+            return next
+        }
+    }
+
+    private companion object {
+        const val STATE_INIT = 0
+        const val STATE_CANCELLED = 1
+        const val STATE_EXPIRED = 2
+    }
+}
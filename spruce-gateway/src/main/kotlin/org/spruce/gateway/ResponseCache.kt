@@ -0,0 +1,100 @@
+package org.spruce.gateway
+
+import org.spruce.api.service.ServiceMetrics
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bounded LRU cache of service responses with per-entry TTL and invalidation by event type.
+ *
+ * Every event type has an invalidation epoch. A caller captures the epoch of its types
+ * before sending the request and passes it to put(), so a response that was in flight
+ * while one of its events was emitted is not cached.
+ */
+class ResponseCache<K : Any, V : Any>(
+    private val maxEntries: Int,
+    metrics: ServiceMetrics
+) {
+    private val hits = metrics.counter("gateway.cache.hits")
+    private val misses = metrics.counter("gateway.cache.misses")
+    private val evictions = metrics.counter("gateway.cache.evictions")
+    private val invalidations = metrics.counter("gateway.cache.invalidations")
+
+    private val epochs = ConcurrentHashMap<String, AtomicLong>()
+    private val byEvent = HashMap<String, MutableSet<K>>()
+    private val entries = object : LinkedHashMap<K, CacheEntry<V>>(256, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, CacheEntry<V>>): Boolean {
+            if (size <= maxEntries) return false
+            unindex(eldest.key, eldest.value)
+            evictions.increment()
+            return true
+        }
+    }
+
+    init {
+        metrics.gauge("gateway.cache.size") { synchronized(this) { entries.size.toLong() } }
+    }
+
+    @Synchronized
+    fun get(key: K): V? {
+        val entry = entries[key]
+        if (entry == null) {
+            misses.increment()
+            return null
+        }
+        if (System.nanoTime() - entry.expiresAtNanos >= 0) {
+            remove(key)
+            misses.increment()
+            return null
+        }
+        hits.increment()
+        return entry.value
+    }
+
+    /**
+     * Returns the current invalidation epoch of the given event types, to be passed to put().
+     */
+    fun epoch(invalidateOn: List<String>): Long =
+        invalidateOn.sumOf { epochs.computeIfAbsent(it) { AtomicLong() }.get() }
+
+    @Synchronized
+    fun put(key: K, value: V, ttlMillis: Long, invalidateOn: List<String>, epoch: Long) {
+        if (epoch(invalidateOn) != epoch) return
+
+        remove(key)
+        entries[key] = CacheEntry(value, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis), invalidateOn)
+        for (type in invalidateOn) {
+            byEvent.getOrPut(type) { HashSet() }.add(key)
+        }
+    }
+
+    /**
+     * Drops every response that declared the event type in its invalidateOn list.
+     */
+    fun invalidate(eventType: String) {
+        val epoch = epochs[eventType] ?: return
+        epoch.incrementAndGet()
+
+        synchronized(this) {
+            val keys = byEvent.remove(eventType) ?: return
+            keys.forEach { remove(it) }
+            invalidations.add(keys.size.toLong())
+        }
+    }
+
+    private fun remove(key: K) {
+        val entry = entries.remove(key) ?: return
+        unindex(key, entry)
+    }
+
+    private fun unindex(key: K, entry: CacheEntry<V>) {
+        for (type in entry.invalidateOn) {
+            val keys = byEvent[type] ?: continue
+            keys.remove(key)
+            if (keys.isEmpty()) byEvent.remove(type)
+        }
+    }
+
+    private class CacheEntry<V>(val value: V, val expiresAtNanos: Long, val invalidateOn: List<String>)
+}
@@ -0,0 +1,86 @@
+package org.spruce.gateway
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Shares one in-flight call between concurrent callers with the same key.
+ *
+ * The first caller for a key runs the call; callers arriving before it completes are
+ * attached to it and receive the same result or error. The key is released as soon as
+ * the call completes, so later callers start a new call. A call that throws instead of
+ * completing releases the key too, and its waiters receive the error mapped by errorOf.
+ */
+class SingleFlight<K : Any, T, E>(
+    private val coalesced: LongAdder,
+    private val errorOf: (Exception) -> E
+) {
+
+    private val flights = ConcurrentHashMap<K, Flight<T, E>>()
+
+    val inFlight: Int get() = flights.size
+
+    fun execute(
+        key: K,
+        onResult: (T) -> Unit,
+        onError: (E) -> Unit,
+        call: (onResult: (T) -> Unit, onError: (E) -> Unit) -> Unit
+    ) {
+        val waiter = Waiter(onResult, onError)
+        while (true) {
+            val existing = flights[key]
+            if (existing != null) {
+                if (existing.join(waiter)) {
+                    coalesced.increment()
+                    return
+                }
+                // Completed while we looked at it; it is being removed
+                flights.remove(key, existing)
+                continue
+            }
+
+            val flight = Flight(waiter)
+            if (flights.putIfAbsent(key, flight) != null) continue
+
+            try {
+                call(
+                    { result -> complete(key, flight).forEach { it.onResult(result) } },
+                    { error -> complete(key, flight).forEach { it.onError(error) } }
+                )
+            } catch (e: Exception) {
+                val waiters = complete(key, flight)
+                // Already completed before it threw, the waiters have their answer
+                if (waiters.isEmpty()) throw e
+                val error = errorOf(e)
+                waiters.forEach { it.onError(error) }
+            }
+            return
+        }
+    }
+
+    private fun complete(key: K, flight: Flight<T, E>): List<Waiter<T, E>> {
+        flights.remove(key, flight)
+        return flight.close()
+    }
+
+    private class Waiter<T, E>(val onResult: (T) -> Unit, val onError: (E) -> Unit)
+
+    private class Flight<T, E>(first: Waiter<T, E>) {
+        private val waiters = ArrayList<Waiter<T, E>>(4).apply { add(first) }
+        private var closed = false
+
+        @Synchronized
+        fun join(waiter: Waiter<T, E>): Boolean {
+            if (closed) return false
+            waiters.add(waiter)
+            return true
+        }
+
+        @Synchronized
+        fun close(): List<Waiter<T, E>> {
+            if (closed) return emptyList()
+            closed = true
+            return waiters
+        }
+    }
+}
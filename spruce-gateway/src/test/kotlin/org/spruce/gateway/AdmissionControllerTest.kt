@@ -0,0 +1,173 @@
+package org.spruce.gateway
+
+import io.grpc.Status
+import org.spruce.api.service.ServiceMetrics
+import java.util.Collections
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class AdmissionControllerTest {
+
+    private val metrics = ServiceMetrics()
+    private val controllers = ArrayList<AdmissionController>()
+
+    private val admitted: MutableList<String> = Collections.synchronizedList(ArrayList())
+    private val rejected: MutableList<String> = Collections.synchronizedList(ArrayList())
+    private val releases = HashMap<String, () -> Unit>()
+
+    @AfterTest
+    fun stop() {
+        controllers.forEach { it.shutdown() }
+    }
+
+    private fun controller(
+        serviceLimit: Int = 0,
+        serviceLimits: Map<String, Int> = emptyMap(),
+        serverLimit: Int = 0,
+        queueSize: Int = 0,
+        queueTimeoutMillis: Long = 1_000
+    ) = AdmissionController(serviceLimit, serviceLimits, serverLimit, queueSize, queueTimeoutMillis, metrics)
+        .also { controllers.add(it) }
+
+    private fun AdmissionController.call(name: String, service: String = "friends", server: String = "lobby-1", timeoutMillis: Long = 10_000) {
+        admit(service, server, timeoutMillis, { release ->
+            synchronized(releases) { releases[name] = release }
+            admitted.add(name)
+        }, { status ->
+            assertEquals(Status.Code.RESOURCE_EXHAUSTED, status.code)
+            rejected.add(name)
+        })
+    }
+
+    private fun release(name: String) = synchronized(releases) { releases.getValue(name) }()
+
+    private fun awaitRejected(name: String) {
+        val deadline = System.currentTimeMillis() + 5_000
+        while (name !in rejected) {
+            if (System.currentTimeMillis() > deadline) throw AssertionError("$name was not rejected")
+            Thread.sleep(1)
+        }
+    }
+
+    @Test
+    fun `controller without limits is disabled`() {
+        assertFalse(controller().enabled)
+        assertTrue(controller(serverLimit = 1).enabled)
+        assertTrue(controller(serviceLimits = mapOf("friends" to 1)).enabled)
+    }
+
+    @Test
+    fun `calls over the service limit are rejected until a slot is released`() {
+        val admission = controller(serviceLimit = 2)
+        admission.call("a")
+        admission.call("b")
+        admission.call("c")
+
+        assertEquals(listOf("a", "b"), admitted)
+        assertEquals(listOf("c"), rejected)
+        assertEquals(2L, metrics.snapshot()["gateway.admission.service.friends.in_flight"])
+
+        release("a")
+        admission.call("d")
+        assertEquals(listOf("a", "b", "d"), admitted)
+        assertEquals(1L, metrics.snapshot()["gateway.admission.rejected"])
+    }
+
+    @Test
+    fun `releasing twice frees one slot`() {
+        val admission = controller(serviceLimit = 1)
+        admission.call("a")
+        release("a")
+        release("a")
+
+        admission.call("b")
+        admission.call("c")
+        assertEquals(listOf("a", "b"), admitted)
+        assertEquals(listOf("c"), rejected)
+    }
+
+    @Test
+    fun `per-service limits override the default`() {
+        val admission = controller(serviceLimit = 1, serviceLimits = mapOf("stats" to 2))
+        admission.call("a", service = "stats")
+        admission.call("b", service = "stats")
+        admission.call("c", service = "friends")
+        admission.call("d", service = "friends")
+
+        assertEquals(listOf("a", "b", "c"), admitted)
+        assertEquals(listOf("d"), rejected)
+    }
+
+    @Test
+    fun `server limit applies across services`() {
+        val admission = controller(serverLimit = 2)
+        admission.call("a", service = "friends")
+        admission.call("b", service = "stats")
+        admission.call("c", service = "parties")
+        admission.call("d", server = "lobby-2")
+
+        assertEquals(listOf("a", "b", "d"), admitted)
+        assertEquals(listOf("c"), rejected)
+    }
+
+    @Test
+    fun `service rejection returns the server slot`() {
+        val admission = controller(serviceLimit = 1, serverLimit = 2)
+        admission.call("a")
+        admission.call("b")
+        admission.call("c", service = "stats")
+
+        assertEquals(listOf("a", "c"), admitted)
+        assertEquals(listOf("b"), rejected)
+    }
+
+    @Test
+    fun `queued calls get freed slots in order`() {
+        val admission = controller(serviceLimit = 1, queueSize = 2)
+        admission.call("a")
+        admission.call("b")
+        admission.call("c")
+        admission.call("d")
+
+        assertEquals(listOf("a"), admitted)
+        assertEquals(listOf("d"), rejected)
+        assertEquals(2L, metrics.snapshot()["gateway.admission.queued"])
+
+        release("a")
+        assertEquals(listOf("a", "b"), admitted)
+        release("b")
+        assertEquals(listOf("a", "b", "c"), admitted)
+        assertEquals(1L, metrics.snapshot()["gateway.admission.service.friends.in_flight"])
+    }
+
+    @Test
+    fun `queued call times out and never runs`() {
+        val admission = controller(serviceLimit = 1, serverLimit = 2, queueSize = 1, queueTimeoutMillis = 30)
+        admission.call("a")
+        admission.call("b")
+
+        awaitRejected("b")
+        assertEquals(1L, metrics.snapshot()["gateway.admission.queue.timeouts"])
+
+        // The slot is freed instead of being handed to the expired call
+        release("a")
+        assertEquals(listOf("a"), admitted)
+        admission.call("c")
+        assertEquals(listOf("a", "c"), admitted)
+        assertEquals(listOf("b"), rejected)
+    }
+
+    @Test
+    fun `queue wait is bounded by the call timeout`() {
+        val admission = controller(serviceLimit = 1, queueSize = 1, queueTimeoutMillis = 60_000)
+        admission.call("a")
+        admission.call("b", timeoutMillis = 30)
+
+        // Far sooner than the 60 s queue timeout
+        awaitRejected("b")
+        assertEquals(1L, metrics.snapshot()["gateway.admission.queue.timeouts"])
+    }
+}
@@ -0,0 +1,124 @@
+package org.spruce.gateway
+
+import java.lang.management.ManagementFactory
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Compares the gateway's request correlation schemes. Run with
+ * `./gradlew :spruce-gateway:benchmarkCorrelationTable --args="<threads> <inFlight> <seconds>"`.
+ *
+ * Every thread keeps inFlight calls registered and, per operation, completes its oldest call the way
+ * the response path does (id bytes from the entry, decode, remove) and registers a new one the way
+ * sendRequest does (new id, encode, put). Reports throughput and bytes allocated per operation.
+ *
+ * - uuid: the previous scheme, random UUID strings in a ConcurrentHashMap
+ * - boxed: counter ids as boxed longs in a ConcurrentHashMap, base-36 encoded
+ * - table: CorrelationTable
+ */
+fun main(args: Array<String>) {
+    val threads = args.getOrNull(0)?.toInt() ?: 8
+    val inFlight = args.getOrNull(1)?.toInt() ?: 256
+    val seconds = args.getOrNull(2)?.toInt() ?: 5
+
+    println("threads=$threads inFlight=$inFlight seconds=$seconds")
+    val schemes = listOf(UuidScheme(), BoxedScheme(), TableScheme())
+    // First round warms up the JIT
+    for (round in 1..2) {
+        for (scheme in schemes) {
+            val result = run(scheme, threads, inFlight, if (round == 1) 1 else seconds)
+            if (round == 2) println(result)
+        }
+    }
+}
+
+private interface Scheme {
+    val name: String
+
+    /** Registers a call and returns the id bytes as written to the request entry. */
+    fun register(value: Any): ByteArray
+
+    /** Completes the call of the id bytes of a response entry. */
+    fun complete(id: ByteArray): Any?
+}
+
+private class UuidScheme : Scheme {
+    override val name = "uuid"
+    private val pending = ConcurrentHashMap<String, Any>()
+
+    override fun register(value: Any): ByteArray {
+        val id = UUID.randomUUID().toString()
+        pending[id] = value
+        return id.toByteArray(Charsets.UTF_8)
+    }
+
+    override fun complete(id: ByteArray): Any? = pending.remove(String(id, Charsets.UTF_8))
+}
+
+private class BoxedScheme : Scheme {
+    override val name = "boxed"
+    private val nextId = java.util.concurrent.atomic.AtomicLong(System.currentTimeMillis() shl 20)
+    private val pending = ConcurrentHashMap<Long, Any>()
+
+    override fun register(value: Any): ByteArray {
+        val id = nextId.incrementAndGet()
+        pending[id] = value
+        return CorrelationTable.encode(id)
+    }
+
+    override fun complete(id: ByteArray): Any? = pending.remove(CorrelationTable.decode(id))
+}
+
+private class TableScheme : Scheme {
+    override val name = "table"
+    private val pending = CorrelationTable<Any>()
+
+    override fun register(value: Any): ByteArray {
+        val id = pending.nextId()
+        pending.put(id, value)
+        return CorrelationTable.encode(id)
+    }
+
+    override fun complete(id: ByteArray): Any? = pending.remove(CorrelationTable.decode(id))
+}
+
+private fun run(scheme: Scheme, threadCount: Int, inFlight: Int, seconds: Int): String {
+    val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val operations = LongAdder()
+    val allocated = LongAdder()
+    val stop = AtomicBoolean(false)
+    val done = CountDownLatch(threadCount)
+    val value = Any()
+
+    repeat(threadCount) {
+        Thread {
+            val window = arrayOfNulls<ByteArray>(inFlight)
+            for (i in window.indices) window[i] = scheme.register(value)
+
+            val before = threadBean.getThreadAllocatedBytes(Thread.currentThread().id)
+            var count = 0L
+            var next = 0
+            while (!stop.get()) {
+                check(scheme.complete(window[next]!!) != null) { "${scheme.name} lost a call" }
+                window[next] = scheme.register(value)
+                next = if (next + 1 == inFlight) 0 else next + 1
+                count++
+            }
+            allocated.add(threadBean.getThreadAllocatedBytes(Thread.currentThread().id) - before)
+            operations.add(count)
+
+            window.forEach { scheme.complete(it!!) }
+            done.countDown()
+        }.start()
+    }
+
+    Thread.sleep(seconds * 1000L)
+    stop.set(true)
+    done.await()
+
+    val ops = operations.sum()
+    return "%-6s %,12d ops/s %8.1f B/op".format(scheme.name, ops / seconds, allocated.sum().toDouble() / ops)
+}
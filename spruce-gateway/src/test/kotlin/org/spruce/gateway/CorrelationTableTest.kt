@@ -0,0 +1,134 @@
+package org.spruce.gateway
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CorrelationTableTest {
+
+    @Test
+    fun `put and remove return the stored value once`() {
+        val table = CorrelationTable<String>()
+        val id = table.nextId()
+
+        table.put(id, "a")
+        assertEquals(1, table.size)
+        assertEquals("a", table.remove(id))
+        assertNull(table.remove(id))
+        assertEquals(0, table.size)
+    }
+
+    @Test
+    fun `put replaces the value of an existing id`() {
+        val table = CorrelationTable<String>()
+        table.put(42, "a")
+        table.put(42, "b")
+
+        assertEquals(1, table.size)
+        assertEquals("b", table.remove(42))
+    }
+
+    @Test
+    fun `ids are unique and increasing`() {
+        val table = CorrelationTable<String>()
+        val ids = List(1000) { table.nextId() }
+
+        assertEquals(ids.sorted(), ids)
+        assertEquals(ids.size, ids.toSet().size)
+        assertTrue(ids.first() > System.currentTimeMillis())
+    }
+
+    @Test
+    fun `colliding ids stay reachable after removals`() {
+        // One stripe of 32 slots: consecutive ids probe into each other and wrap around the end
+        val table = CorrelationTable<Long>(initialCapacity = 16, stripeCount = 1)
+        val ids = (1L..15L).toList()
+        ids.forEach { table.put(it, it) }
+
+        for (removed in ids.filter { it % 2 == 0L }) {
+            assertEquals(removed, table.remove(removed))
+        }
+        for (kept in ids.filter { it % 2 != 0L }) {
+            assertEquals(kept, table.remove(kept))
+        }
+        assertEquals(0, table.size)
+    }
+
+    @Test
+    fun `tables grow beyond their initial capacity`() {
+        val table = CorrelationTable<Long>(initialCapacity = 16, stripeCount = 2)
+        val ids = (1L..10_000L).map { it * 7919 }
+        ids.forEach { table.put(it, it) }
+
+        assertEquals(ids.size, table.size)
+        ids.forEach { assertEquals(it, table.remove(it)) }
+        assertEquals(0, table.size)
+    }
+
+    @Test
+    fun `random operations match a hash map`() {
+        // Small, heavily loaded table, so probe runs wrap around and backward-shift deletion moves entries
+        val table = CorrelationTable<Long>(initialCapacity = 16, stripeCount = 1)
+        val expected = HashMap<Long, Long>()
+        val random = Random(23)
+
+        repeat(200_000) {
+            val id = random.nextLong(1, 64)
+            if (random.nextBoolean()) {
+                val value = random.nextLong()
+                table.put(id, value)
+                expected[id] = value
+            } else {
+                assertEquals(expected.remove(id), table.remove(id))
+            }
+            assertEquals(expected.size, table.size)
+        }
+    }
+
+    @Test
+    fun `concurrent callers never lose or share entries`() {
+        val table = CorrelationTable<Any>(initialCapacity = 64, stripeCount = 4)
+        val threads = List(8) {
+            Thread {
+                repeat(50_000) {
+                    val id = table.nextId()
+                    val value = Any()
+                    table.put(id, value)
+                    assertSame(value, table.remove(id))
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(0, table.size)
+    }
+
+    @Test
+    fun `base 36 round trips`() {
+        val random = Random(36)
+        val ids = listOf(0L, 1L, 35L, 36L, 1295L, System.currentTimeMillis() shl 20, Long.MAX_VALUE) +
+            List(10_000) { random.nextLong(0, Long.MAX_VALUE) }
+
+        for (id in ids) {
+            val encoded = CorrelationTable.encode(id)
+            assertContentEquals(id.toString(36).toByteArray(Charsets.US_ASCII), encoded)
+            assertEquals(id, CorrelationTable.decode(encoded))
+        }
+    }
+
+    @Test
+    fun `invalid ids decode to -1`() {
+        assertEquals(-1, CorrelationTable.decode(null))
+        assertEquals(-1, CorrelationTable.decode(ByteArray(0)))
+        assertEquals(-1, CorrelationTable.decode("ABC".toByteArray()))
+        assertEquals(-1, CorrelationTable.decode("1-2".toByteArray()))
+        assertEquals(-1, CorrelationTable.decode("2a0f1c3e-7d1b-4c1e-9c4e-0b6d7c2f9a11".toByteArray()))
+        // Longer than Long.MAX_VALUE in base 36
+        assertEquals(-1, CorrelationTable.decode("zzzzzzzzzzzzz".toByteArray()))
+    }
+}
@@ -0,0 +1,192 @@
+package org.spruce.gateway
+
+import io.grpc.Status
+import org.spruce.api.service.ServiceMetrics
+import org.spruce.proto.EventStreamResponse
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.logging.Logger
+import kotlin.concurrent.thread
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class EventFanOutTest {
+
+    private val metrics = ServiceMetrics()
+    private val fanOuts = ArrayList<EventFanOut>()
+
+    @AfterTest
+    fun stop() {
+        fanOuts.forEach { it.shutdown() }
+    }
+
+    private fun fanOut(capacity: Int, policy: EventOverflowPolicy, replayWaitMillis: Long = 5_000) =
+        EventFanOut(capacity, policy, 2, metrics, Logger.getLogger("test"), replayWaitMillis).also { fanOuts.add(it) }
+
+    private fun EventFanOut.subscriber(
+        observer: TestStreamObserver<EventStreamResponse>,
+        id: String = "subscription",
+        onClose: (EventFanOut.EventSubscriber) -> Unit = {}
+    ) = EventSubscriber(id, "server", observer, false, false, emptyList(), onClose)
+
+    private fun event(type: String, id: String = "") =
+        EventStreamResponse.newBuilder().setType(type).setEventId(id).setPayload("$type:$id").build()
+
+    private fun payloads(values: List<EventStreamResponse>) = values.map { it.payload }
+
+    @Test
+    fun `events are sent in order while the stream is ready`() {
+        val observer = TestStreamObserver<EventStreamResponse>()
+        val subscriber = fanOut(16, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+
+        for (i in 1..5) subscriber.enqueue("chat", event("chat", "$i-0"))
+
+        assertEquals((1..5).map { "chat:$it-0" }, payloads(observer.awaitValues(5)))
+    }
+
+    @Test
+    fun `events wait until the stream becomes ready`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(16, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+
+        subscriber.enqueue("chat", event("chat", "1-0"))
+        Thread.sleep(20)
+        assertTrue(observer.values.isEmpty())
+
+        observer.setReady(true)
+        assertEquals(listOf("chat:1-0"), payloads(observer.awaitValues(1)))
+    }
+
+    @Test
+    fun `drop oldest keeps the newest events`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(2, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+
+        for (i in 1..3) subscriber.enqueue("chat", event("chat", "$i-0"))
+        observer.setReady(true)
+
+        assertEquals(listOf("chat:2-0", "chat:3-0"), payloads(observer.awaitValues(2)))
+        assertEquals(1L, metrics.snapshot()["gateway.events.dropped"])
+    }
+
+    @Test
+    fun `conflate replaces a queued event of the same type`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(2, EventOverflowPolicy.CONFLATE).subscriber(observer)
+
+        subscriber.enqueue("status", event("status", "1-0"))
+        subscriber.enqueue("chat", event("chat", "2-0"))
+        subscriber.enqueue("status", event("status", "3-0"))
+        observer.setReady(true)
+
+        assertEquals(listOf("status:3-0", "chat:2-0"), payloads(observer.awaitValues(2)))
+        assertEquals(1L, metrics.snapshot()["gateway.events.conflated"])
+        assertEquals(0L, metrics.snapshot()["gateway.events.dropped"])
+    }
+
+    @Test
+    fun `disconnect closes the stream on overflow`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val closed = CountDownLatch(1)
+        val subscriber = fanOut(2, EventOverflowPolicy.DISCONNECT).subscriber(observer) { closed.countDown() }
+
+        for (i in 1..3) subscriber.enqueue("chat", event("chat", "$i-0"))
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(observer.awaitError()).code)
+        assertTrue(closed.await(5, TimeUnit.SECONDS))
+        assertTrue(observer.values.isEmpty())
+        assertFalse(subscriber.replayActive)
+    }
+
+    @Test
+    fun `live events are held back until the replay has caught up`() {
+        val observer = TestStreamObserver<EventStreamResponse>()
+        val subscriber = fanOut(16, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+
+        subscriber.beginReplay()
+        subscriber.enqueue("chat", event("chat", "5-0"), "5-0")
+        subscriber.enqueue("chat", event("chat", "6-0"), "6-0")
+        assertTrue(subscriber.enqueueReplayed("chat", event("chat", "4-0"), "4-0"))
+        assertTrue(subscriber.enqueueReplayed("chat", event("chat", "5-0"), "5-0"))
+        subscriber.endReplay("5-0")
+
+        // 5-0 arrived both live and replayed and is sent once
+        assertEquals(listOf("chat:4-0", "chat:5-0", "chat:6-0"), payloads(observer.awaitValues(3)))
+        Thread.sleep(20)
+        assertEquals(3, observer.values.size)
+    }
+
+    @Test
+    fun `replay waits for a reading subscriber instead of dropping`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(2, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+
+        subscriber.beginReplay()
+        val replay = thread {
+            for (i in 1..10) subscriber.enqueueReplayed("chat", event("chat", "$i-0"), "$i-0")
+            subscriber.endReplay("10-0")
+        }
+        Thread.sleep(50)
+        observer.setReady(true)
+        replay.join(5_000)
+
+        assertEquals((1..10).map { "chat:$it-0" }, payloads(observer.awaitValues(10)))
+        assertEquals(0L, metrics.snapshot()["gateway.events.dropped"])
+        assertTrue(subscriber.replayActive)
+    }
+
+    @Test
+    fun `replay to a subscriber that never reads is aborted in bounded time`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(4, EventOverflowPolicy.DROP_OLDEST, replayWaitMillis = 50).subscriber(observer)
+
+        subscriber.beginReplay()
+        val start = System.nanoTime()
+        var accepted = 0
+        for (i in 1..1_000) {
+            if (!subscriber.enqueueReplayed("chat", event("chat", "$i-0"), "$i-0")) break
+            accepted++
+        }
+        subscriber.endReplay(null)
+        val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        // Only the first wait runs out, every later event returns at once
+        assertTrue(elapsedMillis < 1_000, "replay took $elapsedMillis ms")
+        assertEquals(4, accepted)
+        assertFalse(subscriber.replayActive)
+        assertFalse(subscriber.enqueueReplayed("chat", event("chat", "1001-0"), "1001-0"))
+        assertEquals(1L, metrics.snapshot()["gateway.events.replay.aborted"])
+    }
+
+    @Test
+    fun `closing a subscriber wakes a waiting replay`() {
+        val observer = TestStreamObserver<EventStreamResponse>(ready = false)
+        val subscriber = fanOut(1, EventOverflowPolicy.DROP_OLDEST).subscriber(observer)
+        subscriber.enqueueReplayed("chat", event("chat", "1-0"), "1-0")
+
+        val done = CountDownLatch(1)
+        thread {
+            subscriber.enqueueReplayed("chat", event("chat", "2-0"), "2-0")
+            done.countDown()
+        }
+        Thread.sleep(20)
+        subscriber.cancel()
+
+        assertTrue(done.await(1, TimeUnit.SECONDS))
+        assertFalse(subscriber.replayActive)
+    }
+
+    @Test
+    fun `released subscriber keeps the gauges of its replacement`() {
+        val fanOut = fanOut(16, EventOverflowPolicy.DROP_OLDEST)
+        val old = fanOut.subscriber(TestStreamObserver(), id = "reconnecting")
+        fanOut.subscriber(TestStreamObserver(), id = "reconnecting")
+
+        old.cancel()
+
+        assertTrue(metrics.snapshot().keys.any { it.startsWith("gateway.events.subscriber.server.reconnec") && it.endsWith(".queued") })
+    }
+}
@@ -0,0 +1,93 @@
+package org.spruce.gateway
+
+import org.spruce.api.service.ServiceMetrics
+import org.spruce.proto.EventStreamResponse
+import java.util.logging.Logger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class EventRouterTest {
+
+    private val fanOut = EventFanOut(16, EventOverflowPolicy.DROP_OLDEST, 1, ServiceMetrics(), Logger.getLogger("test"))
+    private val router = EventRouter()
+
+    @AfterTest
+    fun stop() {
+        fanOut.shutdown()
+    }
+
+    private fun subscriber(id: String, filterTypes: Boolean, vararg types: String) =
+        fanOut.EventSubscriber(id, "server-$id", TestStreamObserver<EventStreamResponse>(), false, filterTypes, types.toList()) {}
+
+    private fun subscribersOf(type: String): Set<String> {
+        val ids = HashSet<String>()
+        router.forEachSubscriber(type) { ids.add(it.subscriptionId) }
+        return ids
+    }
+
+    @Test
+    fun `events only reach subscribers of their type`() {
+        router.add(subscriber("a", true, "join", "quit"))
+        router.add(subscriber("b", true, "chat"))
+
+        assertEquals(setOf("a"), subscribersOf("join"))
+        assertEquals(setOf("b"), subscribersOf("chat"))
+        assertEquals(emptySet(), subscribersOf("kick"))
+    }
+
+    @Test
+    fun `subscribers without a filter receive every type`() {
+        router.add(subscriber("a", true, "join"))
+        router.add(subscriber("legacy", false))
+
+        assertEquals(setOf("a", "legacy"), subscribersOf("join"))
+        assertEquals(setOf("legacy"), subscribersOf("kick"))
+    }
+
+    @Test
+    fun `update replaces the indexed types`() {
+        router.add(subscriber("a", true, "join", "quit"))
+
+        assertTrue(router.update("a", listOf("quit", "chat"), 1))
+        assertEquals(emptySet(), subscribersOf("join"))
+        assertEquals(setOf("a"), subscribersOf("quit"))
+        assertEquals(setOf("a"), subscribersOf("chat"))
+    }
+
+    @Test
+    fun `stale updates are ignored`() {
+        router.add(subscriber("a", true, "join"))
+        router.update("a", listOf("chat"), 2)
+
+        assertTrue(router.update("a", listOf("join"), 1))
+        assertEquals(setOf("a"), subscribersOf("chat"))
+        assertEquals(emptySet(), subscribersOf("join"))
+    }
+
+    @Test
+    fun `updating an unknown subscription fails`() {
+        assertFalse(router.update("missing", listOf("join"), 1))
+    }
+
+    @Test
+    fun `reconnecting subscription replaces the old subscriber`() {
+        val old = subscriber("a", true, "join")
+        val new = subscriber("a", true, "chat")
+        router.add(old)
+        router.add(new)
+
+        assertEquals(1, router.size)
+        assertEquals(emptySet(), subscribersOf("join"))
+        assertEquals(setOf("a"), subscribersOf("chat"))
+
+        // The old stream closing later must not remove its replacement
+        assertFalse(router.remove(old))
+        assertEquals(setOf("a"), subscribersOf("chat"))
+        assertTrue(router.remove(new))
+        assertEquals(0, router.size)
+        assertEquals(emptySet(), subscribersOf("chat"))
+    }
+}
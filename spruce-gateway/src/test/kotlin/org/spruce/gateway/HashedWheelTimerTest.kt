@@ -0,0 +1,94 @@
+package org.spruce.gateway
+
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class HashedWheelTimerTest {
+
+    private val timer = HashedWheelTimer(tickDuration = 1, wheelSize = 8, threadName = "timer-test")
+
+    @AfterTest
+    fun stop() {
+        timer.stop()
+    }
+
+    @Test
+    fun `timeout expires after its delay`() {
+        val fired = CountDownLatch(1)
+        val start = System.nanoTime()
+        val timeout = timer.newTimeout(30, TimeUnit.MILLISECONDS) { fired.countDown() }
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS))
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 29)
+        assertTrue(timeout.isExpired)
+        assertFalse(timeout.cancel())
+    }
+
+    @Test
+    fun `cancelled timeout never expires`() {
+        val fired = AtomicInteger()
+        val timeout = timer.newTimeout(20, TimeUnit.MILLISECONDS) { fired.incrementAndGet() }
+
+        assertTrue(timeout.cancel())
+        assertFalse(timeout.cancel())
+        Thread.sleep(80)
+
+        assertEquals(0, fired.get())
+        assertTrue(timeout.isCancelled)
+        assertFalse(timeout.isExpired)
+    }
+
+    @Test
+    fun `cancelling after the timeout was scheduled on the wheel removes it`() {
+        val fired = AtomicInteger()
+        // Longer than one round of the wheel, so it is transferred into a bucket before the cancel
+        val timeout = timer.newTimeout(60, TimeUnit.MILLISECONDS) { fired.incrementAndGet() }
+        Thread.sleep(20)
+
+        assertTrue(timeout.cancel())
+        Thread.sleep(100)
+        assertEquals(0, fired.get())
+    }
+
+    @Test
+    fun `timeouts longer than one round wait for their remaining rounds`() {
+        val fired = CountDownLatch(1)
+        val start = System.nanoTime()
+        // 8 buckets of 1 ms: 50 ms is six rounds
+        timer.newTimeout(50, TimeUnit.MILLISECONDS) { fired.countDown() }
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS))
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 49)
+    }
+
+    @Test
+    fun `timeouts expire in deadline order`() {
+        val order = Collections.synchronizedList(ArrayList<Int>())
+        val done = CountDownLatch(3)
+        for (delay in listOf(40, 10, 25)) {
+            timer.newTimeout(delay.toLong(), TimeUnit.MILLISECONDS) {
+                order.add(delay)
+                done.countDown()
+            }
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(10, 25, 40), order.toList())
+    }
+
+    @Test
+    fun `failing task does not stop the timer`() {
+        val fired = CountDownLatch(1)
+        timer.newTimeout(5, TimeUnit.MILLISECONDS) { throw IllegalStateException("boom") }
+        timer.newTimeout(15, TimeUnit.MILLISECONDS) { fired.countDown() }
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS))
+    }
+}
@@ -0,0 +1,85 @@
+package org.spruce.gateway
+
+import org.spruce.api.service.ServiceMetrics
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ResponseCacheTest {
+
+    private val metrics = ServiceMetrics()
+    private val cache = ResponseCache<String, String>(2, metrics)
+
+    private fun put(key: String, value: String, ttlMillis: Long = 60_000, invalidateOn: List<String> = emptyList()) =
+        cache.put(key, value, ttlMillis, invalidateOn, cache.epoch(invalidateOn))
+
+    @Test
+    fun `cached responses are returned until they expire`() {
+        put("a", "1", ttlMillis = 200)
+
+        assertEquals("1", cache.get("a"))
+        Thread.sleep(250)
+        assertNull(cache.get("a"))
+        assertEquals(1L, metrics.snapshot()["gateway.cache.hits"])
+        assertEquals(1L, metrics.snapshot()["gateway.cache.misses"])
+        assertEquals(0L, metrics.snapshot()["gateway.cache.size"])
+    }
+
+    @Test
+    fun `events drop the responses that declared them`() {
+        put("a", "1", invalidateOn = listOf("join"))
+        put("b", "2", invalidateOn = listOf("chat"))
+
+        cache.invalidate("join")
+
+        assertNull(cache.get("a"))
+        assertEquals("2", cache.get("b"))
+        assertEquals(1L, metrics.snapshot()["gateway.cache.invalidations"])
+    }
+
+    @Test
+    fun `response in flight during an invalidating event is not cached`() {
+        val epoch = cache.epoch(listOf("join"))
+        cache.invalidate("join")
+
+        cache.put("a", "stale", 60_000, listOf("join"), epoch)
+
+        assertNull(cache.get("a"))
+    }
+
+    @Test
+    fun `events of other types keep the epoch`() {
+        val epoch = cache.epoch(listOf("join"))
+        cache.epoch(listOf("chat"))
+        cache.invalidate("chat")
+
+        cache.put("a", "1", 60_000, listOf("join"), epoch)
+
+        assertEquals("1", cache.get("a"))
+    }
+
+    @Test
+    fun `least recently used response is evicted`() {
+        put("a", "1", invalidateOn = listOf("join"))
+        put("b", "2")
+        cache.get("a")
+        put("c", "3")
+
+        assertNull(cache.get("b"))
+        assertEquals("1", cache.get("a"))
+        assertEquals("3", cache.get("c"))
+        assertEquals(1L, metrics.snapshot()["gateway.cache.evictions"])
+    }
+
+    @Test
+    fun `evicted responses leave the event index`() {
+        put("a", "1", invalidateOn = listOf("join"))
+        put("b", "2")
+        put("c", "3")
+        put("a", "4")
+
+        // "a" was evicted and cached again without events, so the event must not drop it
+        cache.invalidate("join")
+        assertEquals("4", cache.get("a"))
+    }
+}
@@ -0,0 +1,145 @@
+package org.spruce.gateway
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class SingleFlightTest {
+
+    private val coalesced = LongAdder()
+    private val flight = SingleFlight<String, String, String>(coalesced) { "thrown: ${it.message}" }
+
+    private class Results {
+        val values = ArrayList<String>()
+        val errors = ArrayList<String>()
+        val onResult: (String) -> Unit = { synchronized(this) { values.add(it) } }
+        val onError: (String) -> Unit = { synchronized(this) { errors.add(it) } }
+    }
+
+    @Test
+    fun `concurrent callers share one call`() {
+        val results = Results()
+        var complete: ((String) -> Unit)? = null
+        val calls = AtomicInteger()
+
+        repeat(3) {
+            flight.execute("key", results.onResult, results.onError) { onResult, _ ->
+                calls.incrementAndGet()
+                complete = onResult
+            }
+        }
+        assertEquals(1, flight.inFlight)
+        complete!!("answer")
+
+        assertEquals(1, calls.get())
+        assertEquals(listOf("answer", "answer", "answer"), results.values)
+        assertEquals(2L, coalesced.sum())
+        assertEquals(0, flight.inFlight)
+    }
+
+    @Test
+    fun `errors reach every waiter`() {
+        val results = Results()
+        var fail: ((String) -> Unit)? = null
+
+        repeat(2) {
+            flight.execute("key", results.onResult, results.onError) { _, onError -> fail = onError }
+        }
+        fail!!("unavailable")
+
+        assertEquals(listOf("unavailable", "unavailable"), results.errors)
+        assertEquals(0, flight.inFlight)
+    }
+
+    @Test
+    fun `different keys do not share calls`() {
+        val results = Results()
+        val calls = AtomicInteger()
+
+        for (key in listOf("a", "b")) {
+            flight.execute(key, results.onResult, results.onError) { onResult, _ ->
+                calls.incrementAndGet()
+                onResult(key)
+            }
+        }
+
+        assertEquals(2, calls.get())
+        assertEquals(listOf("a", "b"), results.values)
+        assertEquals(0L, coalesced.sum())
+    }
+
+    @Test
+    fun `completed call releases its key`() {
+        val results = Results()
+        val calls = AtomicInteger()
+
+        repeat(2) {
+            flight.execute("key", results.onResult, results.onError) { onResult, _ ->
+                onResult("call ${calls.incrementAndGet()}")
+            }
+        }
+
+        assertEquals(listOf("call 1", "call 2"), results.values)
+    }
+
+    @Test
+    fun `call that throws releases its key and fails its waiters`() {
+        val results = Results()
+
+        flight.execute("key", results.onResult, results.onError) { _, _ ->
+            // Joins while the call is still in flight, like a concurrent caller
+            flight.execute("key", results.onResult, results.onError) { _, _ -> }
+            throw IllegalStateException("encoding failed")
+        }
+
+        assertEquals(listOf("thrown: encoding failed", "thrown: encoding failed"), results.errors)
+        assertEquals(0, flight.inFlight)
+
+        flight.execute("key", results.onResult, results.onError) { onResult, _ -> onResult("retried") }
+        assertEquals(listOf("retried"), results.values)
+    }
+
+    @Test
+    fun `exception after completing is rethrown`() {
+        val results = Results()
+
+        assertFailsWith<IllegalStateException> {
+            flight.execute("key", results.onResult, results.onError) { onResult, _ ->
+                onResult("answer")
+                throw IllegalStateException("late")
+            }
+        }
+        assertEquals(listOf("answer"), results.values)
+        assertTrue(results.errors.isEmpty())
+        assertEquals(0, flight.inFlight)
+    }
+
+    @Test
+    fun `racing callers get the result exactly once`() {
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            repeat(200) { round ->
+                val received = AtomicInteger()
+                val done = CountDownLatch(8)
+                repeat(8) {
+                    executor.execute {
+                        flight.execute("key-$round", { received.incrementAndGet(); done.countDown() }, { done.countDown() }) { onResult, _ ->
+                            executor.execute { onResult("answer") }
+                        }
+                    }
+                }
+                assertTrue(done.await(5, TimeUnit.SECONDS))
+                assertEquals(8, received.get())
+            }
+            assertEquals(0, flight.inFlight)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.spruce.gateway
+
+import io.grpc.stub.ServerCallStreamObserver
+import java.util.Collections
+import java.util.concurrent.TimeUnit
+
+/**
+ * Server stream observer that records what is sent and lets tests control readiness.
+ */
+class TestStreamObserver<T>(ready: Boolean = true) : ServerCallStreamObserver<T>() {
+
+    val values: MutableList<T> = Collections.synchronizedList(ArrayList())
+
+    @Volatile
+    var error: Throwable? = null
+        private set
+
+    @Volatile
+    var completed = false
+        private set
+
+    @Volatile
+    private var ready = ready
+    private var onReady: Runnable? = null
+    private var onCancel: Runnable? = null
+
+    /** Changes readiness and, like gRPC, calls the onReady handler when the stream becomes ready. */
+    fun setReady(ready: Boolean) {
+        this.ready = ready
+        if (ready) onReady?.run()
+    }
+
+    /** Simulates a client cancelling the call. */
+    fun cancel() {
+        onCancel?.run()
+    }
+
+    /** Waits until at least count values were sent and returns a copy of them. */
+    fun awaitValues(count: Int, timeoutMillis: Long = 5_000): List<T> {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        while (values.size < count) {
+            if (System.nanoTime() > deadline) throw AssertionError("Expected $count values, got ${values.size}")
+            Thread.sleep(1)
+        }
+        return synchronized(values) { values.toList() }
+    }
+
+    /** Waits until the stream was closed with an error and returns it. */
+    fun awaitError(timeoutMillis: Long = 5_000): Throwable {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+        while (true) {
+            error?.let { return it }
+            if (System.nanoTime() > deadline) throw AssertionError("Expected the stream to fail")
+            Thread.sleep(1)
+        }
+    }
+
+    override fun onNext(value: T) {
+        values.add(value)
+    }
+
+    override fun onError(t: Throwable) {
+        error = t
+    }
+
+    override fun onCompleted() {
+        completed = true
+    }
+
+    override fun isReady() = ready
+
+    override fun setOnReadyHandler(onReadyHandler: Runnable) {
+        onReady = onReadyHandler
+    }
+
+    override fun isCancelled() = false
+
+    override fun setOnCancelHandler(onCancelHandler: Runnable) {
+        onCancel = onCancelHandler
+    }
+
+    override fun setCompression(compression: String) {}
+
+    override fun disableAutoInboundFlowControl() {}
+
+    override fun request(count: Int) {}
+
+    override fun setMessageCompression(enable: Boolean) {}
+}
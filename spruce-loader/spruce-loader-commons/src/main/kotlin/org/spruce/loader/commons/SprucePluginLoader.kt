@@ -62,7 +62,12 @@ class SprucePluginLoader(
             jarFile.getInputStream(entry).bufferedReader().readLines().forEach { interfaceName ->
                 try {
                     val interfaceClass = classLoader.loadClass(interfaceName)
-                    val proxyClass = classLoader.loadClass("${interfaceName}__Proxy")
+                    // Models with @NearCache methods also get a caching proxy wrapping the plain one
+                    val proxyClass = try {
+                        classLoader.loadClass("${interfaceName}__CachingProxy")
+                    } catch (e: ClassNotFoundException) {
+                        classLoader.loadClass("${interfaceName}__Proxy")
+                    }
                     val constructor = proxyClass.getConstructor(Class.forName("org.spruce.api.gateway.SpruceGatewayClient"))
                     val proxyInstance = constructor.newInstance(gatewayClient)
 
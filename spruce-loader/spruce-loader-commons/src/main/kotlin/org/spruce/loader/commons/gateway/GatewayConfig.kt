@@ -11,7 +11,8 @@ data class GatewayConfig(
     val enabled: Boolean,
     val host: String,
     val port: Int,
-    val serverId: String
+    val serverId: String,
+    val callMode: String = "unary"
 ) {
 
     companion object {
@@ -24,6 +25,7 @@ data class GatewayConfig(
             val envHost = env["GATEWAY_HOST"]
             val envPort = env["GATEWAY_PORT"]?.toIntOrNull()
             val envServerId = env["GATEWAY_SERVER_ID"]
+            val envCallMode = env["GATEWAY_CALL_MODE"]
 
             val yamlGatewayConfig: GatewayConfig? = if (file.exists()) {
                 val mapper = ObjectMapper(YAMLFactory()).registerKotlinModule()
@@ -35,10 +37,16 @@ data class GatewayConfig(
                 enabled = envEnabled ?: yamlGatewayConfig?.enabled ?: true,
                 host = envHost ?: yamlGatewayConfig?.host ?: "127.0.0.1",
                 port = envPort ?: yamlGatewayConfig?.port ?: 6565,
-                serverId = envServerId ?: yamlGatewayConfig?.serverId ?: "default-spruce-server"
+                serverId = envServerId ?: yamlGatewayConfig?.serverId ?: "default-spruce-server",
+                callMode = envCallMode ?: yamlGatewayConfig?.callMode ?: "unary"
             )
         }
     }
+
+    /**
+     * "stream" multiplexes all calls over one CallStream RPC, "unary" opens one RPC per call.
+     */
+    val useCallStream: Boolean get() = callMode.equals("stream", ignoreCase = true)
 }
 
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -13,7 +13,7 @@ class SpruceGatewayManager(
     private val config: GatewayConfig
 ) {
     private val scheduler = Executors.newScheduledThreadPool(1)
-    private var gatewayClient = SpruceGatewayClientImpl(logger, config.host, config.port, config.serverId)
+    private var gatewayClient = SpruceGatewayClientImpl(logger, config.host, config.port, config.serverId, config.useCallStream)
 
     init {
         context.register(SpruceGatewayClient::class.java, gatewayClient)
@@ -81,6 +81,10 @@ abstract class AbstractSprucePluginProcessor(
         return ServiceModelProxyGenerator.process(component, environment)
     }
 
+    open fun processServiceDispatcher(component: KSClassDeclaration, environment: SymbolProcessorEnvironment): Boolean {
+        return ServiceDispatcherGenerator.process(component, environment)
+    }
+
     abstract fun processCommandRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment)
     abstract fun processEventListenerRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment)
     abstract fun processScheduledTaskRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment)
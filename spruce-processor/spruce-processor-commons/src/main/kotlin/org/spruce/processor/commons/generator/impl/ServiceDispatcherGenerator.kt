@@ -0,0 +1,232 @@
+package org.spruce.processor.commons.generator.impl
+
+import com.google.devtools.ksp.getAllSuperTypes
+import com.google.devtools.ksp.getDeclaredFunctions
+import com.google.devtools.ksp.isPrivate
+import com.google.devtools.ksp.isProtected
+import com.google.devtools.ksp.processing.Dependencies
+import com.google.devtools.ksp.processing.SymbolProcessorEnvironment
+import com.google.devtools.ksp.symbol.*
+import org.spruce.processor.commons.generator.CodeGenerator
+import java.io.OutputStreamWriter
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Generates Xxx__Dispatcher for SpruceServiceBase implementations: a `when` over action names
+ * calling the service methods directly, with an ActionCodec per action and an ActionLimiter
+ * per @ConcurrencyLimit action.
+ * SpruceServiceBase uses it instead of reflective dispatch when present.
+ */
+object ServiceDispatcherGenerator : CodeGenerator {
+
+    private const val SERVICE_BASE = "org.spruce.api.service.SpruceServiceBase"
+    private const val ACTION = "org.spruce.api.service.SpruceServiceBase.Action"
+    private const val SERVICE_MODEL = "org.spruce.api.service.ServiceModel"
+    private const val SERVICE_CALL = "org.spruce.api.service.ServiceCall"
+    private const val CONCURRENCY_LIMIT = "org.spruce.api.service.ConcurrencyLimit"
+
+    override fun process(clazz: KSClassDeclaration, environment: SymbolProcessorEnvironment): Boolean {
+        if (clazz.classKind != ClassKind.CLASS || Modifier.ABSTRACT in clazz.modifiers) return false
+        // Loaded by name at runtime, nested classes are left to reflective dispatch
+        if (clazz.parentDeclaration != null) return false
+        if (clazz.getAllSuperTypes().none { it.declaration.qualifiedName?.asString() == SERVICE_BASE }) return false
+
+        val actions = linkedMapOf<String, KSFunctionDeclaration>()
+        val limits = mutableMapOf<String, KSAnnotation>()
+
+        for (function in clazz.getDeclaredFunctions()) {
+            val action = function.findAnnotation(ACTION)
+                ?.arguments
+                ?.find { it.name?.asString() == "value" }
+                ?.value as? String ?: continue
+
+            if (actions.put(action, function) != null) {
+                environment.logger.error("Duplicate action: $action", function)
+                return false
+            }
+            function.findAnnotation(CONCURRENCY_LIMIT)?.let { limits[action] = it }
+        }
+
+        for (superType in clazz.superTypes) {
+            val model = superType.resolve().declaration as? KSClassDeclaration ?: continue
+            if (model.classKind != ClassKind.INTERFACE || model.findAnnotation(SERVICE_MODEL) == null) continue
+
+            for (modelFunction in model.getDeclaredFunctions()) {
+                val methodName = modelFunction.simpleName.asString()
+                val action = modelFunction.findAnnotation(SERVICE_CALL)
+                    ?.arguments
+                    ?.find { it.name?.asString() == "value" }
+                    ?.value as? String ?: methodName
+
+                if (action in actions) continue
+
+                val implementation = clazz.getAllFunctions().firstOrNull {
+                    it.simpleName.asString() == methodName &&
+                            it.parameters.size == modelFunction.parameters.size &&
+                            !it.isAbstract
+                } ?: continue
+
+                actions[action] = implementation
+                (implementation.findAnnotation(CONCURRENCY_LIMIT) ?: modelFunction.findAnnotation(CONCURRENCY_LIMIT))
+                    ?.let { limits[action] = it }
+            }
+        }
+
+        if (actions.isEmpty()) return false
+
+        val unsupported = actions.values.firstOrNull {
+            it.isPrivate() || it.isProtected() || it.parameters.size > 1 ||
+                    it.typeParameters.isNotEmpty()
+        }
+        if (unsupported != null) {
+            environment.logger.warn(
+                "${unsupported.simpleName.asString()} can't be called from generated code, " +
+                        "${clazz.simpleName.asString()} falls back to reflective dispatch", unsupported
+            )
+            return false
+        }
+
+        val packageName = clazz.containingFile?.packageName?.asString()?.takeIf { it.isNotBlank() }
+            ?: throw IllegalStateException("Can't determine package for ${clazz.simpleName.asString()}")
+
+        val simpleName = clazz.simpleName.asString()
+        val qualifiedName = clazz.qualifiedName?.asString() ?: return false
+        val fileName = "${simpleName}__Dispatcher"
+
+        val codecNames = mutableSetOf<String>()
+        val methods = actions.map { (action, function) ->
+            val methodName = function.simpleName.asString()
+            var codecName = "${methodName}Codec"
+            var index = 1
+            while (!codecNames.add(codecName)) codecName = "${methodName}Codec${index++}"
+            DispatchMethod(action, function, codecName)
+        }
+
+        val file = environment.codeGenerator.createNewFile(
+            Dependencies(false, *listOfNotNull(clazz.containingFile).toTypedArray()), packageName, fileName
+        )
+
+        OutputStreamWriter(file, Charsets.UTF_8).use { writer ->
+            writer.write("package $packageName\n\n")
+            writer.write("import $qualifiedName\n")
+            writer.write("import org.spruce.api.codec.ActionCodec\n")
+            writer.write("import org.spruce.api.codec.SpruceCodec\n")
+            writer.write("import org.spruce.api.codec.TypeToken\n")
+            if (limits.isNotEmpty()) writer.write("import org.spruce.api.service.ActionLimiter\n")
+            writer.write("import org.spruce.api.service.ServiceDispatcher\n")
+            writer.write("import java.util.concurrent.CompletableFuture\n")
+            writer.write("import javax.annotation.processing.Generated\n")
+            if (methods.any { it.isSuspend() }) {
+                writer.write("import kotlin.coroutines.Continuation\n")
+                writer.write("import kotlin.coroutines.EmptyCoroutineContext\n")
+                writer.write("import kotlin.coroutines.startCoroutine\n")
+            }
+            writer.write("\n")
+
+            writer.write("@Generated(\"Spruce KSP\")\n")
+            writer.write("class $fileName(private val service: $simpleName) : ServiceDispatcher {\n\n")
+
+            for (method in methods) {
+                val requestType = method.function.parameters.firstOrNull()?.type?.resolve()?.typeLiteral() ?: "null"
+                writer.write("    private val ${method.codecName} = ActionCodec($requestType, ${method.responseType().typeLiteral()})\n")
+            }
+
+            writer.write("\n    override fun actions(): Set<String> = ACTIONS\n\n")
+
+            if (limits.isNotEmpty()) {
+                writer.write("    override fun limiters(): Map<String, ActionLimiter> = mapOf(\n")
+                writer.write(limits.entries.joinToString(",\n") { (action, limit) ->
+                    val value = limit.arguments.find { it.name?.asString() == "value" }?.value as? Int ?: 1
+                    val adaptive = limit.arguments.find { it.name?.asString() == "adaptive" }?.value as? Boolean ?: false
+                    "        ${action.literal()} to ActionLimiter($value, $adaptive)"
+                })
+                writer.write("\n    )\n\n")
+            }
+
+            writer.write("    override fun dispatch(action: String, payload: ByteArray?, codec: SpruceCodec): CompletableFuture<ByteArray> =\n")
+            writer.write("        when (action) {\n")
+            for (method in methods) {
+                val argument = if (method.function.parameters.isEmpty()) "" else "${method.codecName}.decode(codec, payload)"
+                val call = "service.${method.function.simpleName.asString()}($argument)"
+                if (method.isSuspend()) {
+                    writer.write("            ${method.action.literal()} -> future { $call }.thenApply { ${method.codecName}.encode(codec, it) }\n")
+                } else if (method.returnsFuture()) {
+                    writer.write("            ${method.action.literal()} -> $call.thenApply { ${method.codecName}.encode(codec, it) }\n")
+                } else {
+                    writer.write("            ${method.action.literal()} -> CompletableFuture.completedFuture(${method.codecName}.encode(codec, $call))\n")
+                }
+            }
+            writer.write("            else -> throw IllegalArgumentException(\"Unknown action: \$action\")\n")
+            writer.write("        }\n\n")
+
+            // Suspend actions complete the future from their continuation instead of blocking a worker
+            if (methods.any { it.isSuspend() }) {
+                writer.write("    private fun <T> future(block: suspend () -> T): CompletableFuture<T> {\n")
+                writer.write("        val future = CompletableFuture<T>()\n")
+                writer.write("        block.startCoroutine(Continuation(EmptyCoroutineContext) { result ->\n")
+                writer.write("            result.fold(future::complete, future::completeExceptionally)\n")
+                writer.write("        })\n")
+                writer.write("        return future\n")
+                writer.write("    }\n\n")
+            }
+
+            writer.write("    companion object {\n")
+            writer.write("        private val ACTIONS = setOf(${methods.joinToString(", ") { it.action.literal() }})\n")
+            writer.write("    }\n")
+            writer.write("}")
+        }
+
+        return true
+    }
+
+    private class DispatchMethod(
+        val action: String,
+        val function: KSFunctionDeclaration,
+        val codecName: String
+    ) {
+        private val returnType = function.returnType?.resolve()
+
+        fun isSuspend() = Modifier.SUSPEND in function.modifiers
+
+        fun returnsFuture() = returnType?.declaration?.qualifiedName?.asString() == CompletableFuture::class.java.name
+
+        /**
+         * Type the result is encoded as: the future's value type, or the return type itself.
+         */
+        fun responseType(): KSType? {
+            if (isSuspend() || !returnsFuture()) return returnType
+            val argument = returnType?.arguments?.firstOrNull()
+            return if (argument?.variance == Variance.STAR) null else argument?.type?.resolve()
+        }
+    }
+
+    /**
+     * Kotlin expression for the java.lang.reflect.Type of this type; unknown types and Unit encode as Any.
+     */
+    private fun KSType?.typeLiteral(): String {
+        val name = this?.declaration?.qualifiedName?.asString()
+        if (this == null || name == null || name == "kotlin.Unit" || declaration is KSTypeParameter) return "Any::class.java"
+        if (arguments.isEmpty()) return "$name::class.java"
+        return "object : TypeToken<${makeNotNullable().render()}>() {}.type"
+    }
+
+    private fun KSType.render(): String {
+        val name = declaration.qualifiedName?.asString() ?: "Any"
+        val args = if (arguments.isEmpty()) "" else arguments.joinToString(", ", "<", ">") { argument ->
+            val type = argument.type?.resolve()
+            when {
+                argument.variance == Variance.STAR || type == null -> "*"
+                argument.variance == Variance.COVARIANT -> "out ${type.render()}"
+                argument.variance == Variance.CONTRAVARIANT -> "in ${type.render()}"
+                else -> type.render()
+            }
+        }
+        return name + args + if (isMarkedNullable) "?" else ""
+    }
+
+    private fun String.literal() = "\"" + replace("\\", "\\\\").replace("\"", "\\\"").replace("$", "\\$") + "\""
+
+    private fun KSAnnotated.findAnnotation(qualifiedName: String) = annotations.firstOrNull {
+        it.annotationType.resolve().declaration.qualifiedName?.asString() == qualifiedName
+    }
+}
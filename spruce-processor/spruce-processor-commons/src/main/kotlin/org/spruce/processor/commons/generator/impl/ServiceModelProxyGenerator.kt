@@ -24,12 +24,21 @@ object ServiceModelProxyGenerator : CodeGenerator {
         val serviceName = annotation.arguments.find { it.name?.asString() == "value" || it.name?.asString() == "service" }
             ?.value as? String ?: return false
 
+        // Non-JSON codecs are passed to the gateway client with every call
+        val contentType = annotation.arguments.find { it.name?.asString() == "contentType" }
+            ?.value as? String
+        val modelOptions = contentType
+            ?.takeIf { it.isNotBlank() && it != "application/json" }
+            ?.let { ".withContentType(\"$it\")" }
+            .orEmpty()
+
         val packageName = clazz.containingFile?.packageName?.asString()?.takeIf { it.isNotBlank() }
             ?: throw IllegalStateException("Can't determine package for ${clazz.simpleName.asString()}")
 
         val simpleName = clazz.simpleName.asString()
         val qualifiedName = clazz.qualifiedName?.asString() ?: return false
         val fileName = "${simpleName}__Proxy"
+        val methods = mutableListOf<ProxyMethod>()
 
         val file = environment.codeGenerator.createNewFile(
             Dependencies(false), packageName, fileName
@@ -38,6 +47,8 @@ object ServiceModelProxyGenerator : CodeGenerator {
         OutputStreamWriter(file, Charsets.UTF_8).use { writer ->
             writer.write("package $packageName\n\n")
             writer.write("import $qualifiedName\n")
+            writer.write("import org.spruce.api.gateway.CallBatcher\n")
+            writer.write("import org.spruce.api.gateway.CallOptions\n")
             writer.write("import org.spruce.api.gateway.GatewayCall\n")
             writer.write("import org.spruce.api.gateway.SpruceGatewayClient\n")
             writer.write("import java.util.concurrent.CompletableFuture\n")
@@ -45,6 +56,7 @@ object ServiceModelProxyGenerator : CodeGenerator {
 
             writer.write("@Generated(\"Spruce KSP\")\n")
             writer.write("class $fileName(private val gatewayClient: SpruceGatewayClient) : $simpleName {\n")
+            val optionNames = mutableSetOf<String>()
 
             for (function in clazz.getAllFunctions()) {
                 val methodName = function.simpleName.asString()
@@ -80,13 +92,40 @@ object ServiceModelProxyGenerator : CodeGenerator {
                     ?.find { it.name?.asString() == "value" }
                     ?.value as? String ?: methodName
 
+                methods += ProxyMethod(methodName, paramFqcn, responseTypeFqcn, function.findAnnotation("org.spruce.api.service.NearCache"))
+
+                // Batched methods go through a CallBatcher instead of calling the gateway directly
+                val batched = function.findAnnotation("org.spruce.api.service.Batched")
+                if (batched != null) {
+                    writeBatchedMethod(writer, batched, serviceName, modelOptions, methodName, paramFqcn, responseTypeFqcn)
+                    continue
+                }
+
+                var methodOptions = if (function.hasAnnotation("org.spruce.api.service.Coalesce")) ".withCoalesce(true)" else ""
+
+                val cacheable = function.findAnnotation("org.spruce.api.service.Cacheable")
+                if (cacheable != null) {
+                    val ttl = cacheable.arguments.find { it.name?.asString() == "ttlMs" }?.value as? Long ?: 0L
+                    val invalidateOn = invalidateOnTypes(cacheable).joinToString("") { ", \"$it\"" }
+                    methodOptions += ".withCache(${ttl}L$invalidateOn)"
+                }
+
+                // Non-default options are built once per method
+                val callOptions = (modelOptions + methodOptions).takeIf { it.isNotEmpty() }?.let { options ->
+                    var name = "${methodName}Options"
+                    var index = 1
+                    while (!optionNames.add(name)) name = "${methodName}Options${index++}"
+                    writer.write("    private val $name = CallOptions.DEFAULT$options\n\n")
+                    name
+                }
+
                 writer.write("    override fun $methodName($paramName: $paramFqcn): CompletableFuture<$responseTypeFqcn> {\n")
                 writer.write("        return gatewayClient.call(\n")
                 writer.write("            GatewayCall.of(\n")
                 writer.write("                \"$serviceName\",\n")
                 writer.write("                \"$actionName\",\n")
                 writer.write("                $paramName,\n")
-                writer.write("                $responseTypeFqcn::class.java\n")
+                writer.write("                $responseTypeFqcn::class.java${if (callOptions != null) ",\n                $callOptions" else ""}\n")
                 writer.write("            )\n")
                 writer.write("        )\n")
                 writer.write("    }\n\n")
@@ -95,6 +134,133 @@ object ServiceModelProxyGenerator : CodeGenerator {
             writer.write("}")
         }
 
+        if (methods.any { it.nearCache != null }) {
+            generateCachingProxy(packageName, qualifiedName, simpleName, methods, environment)
+        }
+
         return true
     }
+
+    /**
+     * Writes a method that collects calls in a CallBatcher and sends them to the batch action as one list.
+     */
+    private fun writeBatchedMethod(
+        writer: OutputStreamWriter,
+        batched: KSAnnotation,
+        serviceName: String,
+        modelOptions: String,
+        methodName: String,
+        paramFqcn: String,
+        responseTypeFqcn: String
+    ) {
+        val batchAction = batched.arguments.find { it.name?.asString() == "action" }?.value as? String
+        val windowMs = batched.arguments.find { it.name?.asString() == "windowMs" }?.value as? Long ?: 5L
+        val maxSize = batched.arguments.find { it.name?.asString() == "maxSize" }?.value as? Int ?: 100
+        val options = if (modelOptions.isEmpty()) "" else ",\n                CallOptions.DEFAULT$modelOptions"
+
+        writer.write("    private val ${methodName}Batcher = CallBatcher<$paramFqcn, $responseTypeFqcn>(${windowMs}L, $maxSize) { requests ->\n")
+        writer.write("        gatewayClient.call(\n")
+        writer.write("            GatewayCall.of(\n")
+        writer.write("                \"$serviceName\",\n")
+        writer.write("                \"$batchAction\",\n")
+        writer.write("                requests,\n")
+        writer.write("                Array<$responseTypeFqcn>::class.java$options\n")
+        writer.write("            )\n")
+        writer.write("        ).thenApply { it.asList() }\n")
+        writer.write("    }\n\n")
+
+        writer.write("    override fun $methodName(request: $paramFqcn): CompletableFuture<$responseTypeFqcn> {\n")
+        writer.write("        return ${methodName}Batcher.submit(request)\n")
+        writer.write("    }\n\n")
+    }
+
+    /**
+     * Generates Xxx__CachingProxy, which wraps Xxx__Proxy with a ResponseNearCache per @NearCache method.
+     * The loader registers it instead of the plain proxy when present.
+     */
+    private fun generateCachingProxy(
+        packageName: String,
+        qualifiedName: String,
+        simpleName: String,
+        methods: List<ProxyMethod>,
+        environment: SymbolProcessorEnvironment
+    ) {
+        val fileName = "${simpleName}__CachingProxy"
+        val file = environment.codeGenerator.createNewFile(
+            Dependencies(false), packageName, fileName
+        )
+
+        OutputStreamWriter(file, Charsets.UTF_8).use { writer ->
+            writer.write("package $packageName\n\n")
+            writer.write("import $qualifiedName\n")
+            writer.write("import org.spruce.api.gateway.ResponseNearCache\n")
+            writer.write("import org.spruce.api.gateway.SpruceGatewayClient\n")
+            writer.write("import java.util.concurrent.CompletableFuture\n")
+            writer.write("import javax.annotation.processing.Generated\n\n")
+
+            writer.write("@Generated(\"Spruce KSP\")\n")
+            writer.write("class $fileName(gatewayClient: SpruceGatewayClient) : $simpleName {\n")
+            writer.write("    private val delegate = ${simpleName}__Proxy(gatewayClient)\n\n")
+
+            val cached = methods.filter { it.nearCache != null }
+            for (method in cached) {
+                val ttl = method.nearCache!!.arguments.find { it.name?.asString() == "ttlMs" }?.value as? Long ?: 0L
+                val maxSize = method.nearCache.arguments.find { it.name?.asString() == "maxSize" }?.value as? Int ?: 1000
+                writer.write("    private val ${method.name}Cache = ResponseNearCache<${method.paramFqcn}, ${method.responseFqcn}>(${ttl}L, $maxSize)\n")
+            }
+
+            writer.write("\n    init {\n")
+            for (method in cached) {
+                val events = (method.nearCache!!.arguments.find { it.name?.asString() == "invalidateOn" }?.value as? List<*>)
+                    .orEmpty()
+                    .mapNotNull { (it as? KSType)?.declaration?.qualifiedName?.asString() }
+                for (event in events) {
+                    writer.write("        gatewayClient.on($event::class.java) { ${method.name}Cache.invalidateAll() }\n")
+                }
+            }
+            writer.write("    }\n\n")
+
+            for (method in methods) {
+                writer.write("    override fun ${method.name}(request: ${method.paramFqcn}): CompletableFuture<${method.responseFqcn}> =\n")
+                if (method.nearCache != null) {
+                    writer.write("        ${method.name}Cache.get(request) { delegate.${method.name}(it) }\n\n")
+                } else {
+                    writer.write("        delegate.${method.name}(request)\n\n")
+                }
+            }
+
+            writer.write("    fun cacheStats(): Map<String, ResponseNearCache.Stats> = mapOf(\n")
+            writer.write(cached.joinToString(",\n") { "        \"${it.name}\" to ${it.name}Cache.stats()" })
+            writer.write("\n    )\n")
+            writer.write("}")
+        }
+    }
+
+    private class ProxyMethod(
+        val name: String,
+        val paramFqcn: String,
+        val responseFqcn: String,
+        val nearCache: KSAnnotation?
+    )
+
+    /**
+     * Event types of the invalidateOn classes of @Cacheable, resolved like GatewayEvent.resolveType:
+     * the @GatewayEventType value, or the simple class name.
+     */
+    private fun invalidateOnTypes(annotation: KSAnnotation): List<String> =
+        (annotation.arguments.find { it.name?.asString() == "invalidateOn" }?.value as? List<*>)
+            .orEmpty()
+            .mapNotNull { (it as? KSType)?.declaration }
+            .map { declaration ->
+                val type = declaration.annotations.firstOrNull {
+                    it.annotationType.resolve().declaration.qualifiedName?.asString() == "org.spruce.api.event.GatewayEventType"
+                }?.arguments?.find { it.name?.asString() == "value" }?.value as? String
+                type?.takeIf { it.isNotEmpty() } ?: declaration.simpleName.asString()
+            }
+
+    private fun KSFunctionDeclaration.findAnnotation(qualifiedName: String) = annotations.firstOrNull {
+        it.annotationType.resolve().declaration.qualifiedName?.asString() == qualifiedName
+    }
+
+    private fun KSFunctionDeclaration.hasAnnotation(qualifiedName: String) = findAnnotation(qualifiedName) != null
 }
@@ -0,0 +1,10 @@
+package org.spruce.processor.service
+
+import com.google.devtools.ksp.processing.*
+
+class SprucePluginProcessorProviderService : SymbolProcessorProvider {
+
+    override fun create(environment: SymbolProcessorEnvironment): SymbolProcessor {
+        return SprucePluginProcessorService(environment)
+    }
+}
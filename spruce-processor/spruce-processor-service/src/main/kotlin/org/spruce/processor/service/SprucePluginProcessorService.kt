@@ -0,0 +1,27 @@
+package org.spruce.processor.service
+
+import com.google.devtools.ksp.processing.Resolver
+import com.google.devtools.ksp.processing.SymbolProcessorEnvironment
+import com.google.devtools.ksp.symbol.KSAnnotated
+import com.google.devtools.ksp.symbol.KSClassDeclaration
+import org.spruce.processor.commons.AbstractSprucePluginProcessor
+
+class SprucePluginProcessorService(environment: SymbolProcessorEnvironment) : AbstractSprucePluginProcessor(environment) {
+
+    override fun process(resolver: Resolver): List<KSAnnotated> {
+        val services = resolver.getNewFiles()
+            .flatMap { it.declarations }
+            .filterIsInstance<KSClassDeclaration>()
+
+        for (service in services) {
+            processServiceDispatcher(service, environment)
+        }
+
+        return emptyList()
+    }
+
+    override fun processCommandRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment) {}
+    override fun processEventListenerRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment) {}
+    override fun processScheduledTaskRegistry(component: KSClassDeclaration, environment: SymbolProcessorEnvironment) {}
+    override fun processFileConfigLoader(component: KSClassDeclaration, environment: SymbolProcessorEnvironment) {}
+}